@@ -0,0 +1,54 @@
+package com.example.benchmarks;
+
+import com.example.cache.codec.CacheValueFormat;
+import com.example.cache.codec.CacheValueSerializer;
+import com.example.models.Product;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// Encode and decode time of the Redis value formats for a single product and for lists of products
+// The size of the encoded value is printed once per trial, as JMH only reports times
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheValueCodecBenchmark {
+
+    @Param({"JDK", "JSON", "BINARY"})
+    private CacheValueFormat format;
+
+    // 1 is a single product i.e. product:v1:id:{id}, 20 and 1000 are lists i.e. product:v1:category:{category}
+    @Param({"1", "20", "1000"})
+    private int size;
+
+    private CacheValueSerializer serializer;
+    private Object value;
+    private byte[] bytes;
+
+
+    @Setup
+    public void setUp() {
+        serializer = new CacheValueSerializer(format, false);
+        List<Product> products = Fixtures.products(size);
+        value = size == 1 ? products.get(0) : products;
+        bytes = serializer.serialize(value);
+        System.out.printf("%n%s size=%d: %d bytes%n", format, size, bytes.length);
+    }
+
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(value);
+    }
+
+
+    @Benchmark
+    public Object decode() {
+        return serializer.deserialize(bytes);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.benchmarks;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.example.loadtest.FakeStoreStub;
+import com.example.models.Category;
+import com.example.models.Product;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Products shaped like the ones of the Fake Store API, shared by all the benchmarks so their results are comparable
+
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+
+    // Same products as the ones answered by the stub of the Fake Store API
+    static FakeStoreProductDto dto(long id) {
+        return FakeStoreStub.product(id);
+    }
+
+
+    static Product product(long id) {
+        FakeStoreProductDto dto = dto(id);
+        Product product = new Product();
+        product.setId(dto.getId());
+        product.setTitle(dto.getTitle());
+        product.setDescription(dto.getDescription());
+        product.setPrice(dto.getPrice());
+        product.setImage(dto.getImage());
+        Category category = new Category();
+        category.setDescription(dto.getCategory());
+        product.setCategory(category);
+        return product;
+    }
+
+
+    static List<Product> products(int count) {
+        List<Product> products = new ArrayList<>(count);
+        for(long id = 1; id <= count; id++) {
+            products.add(product(id));
+        }
+        return products;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.benchmarks;
+
+import com.example.Calling3rdPartyApiApplication;
+import com.example.cache.ProductCache;
+import com.example.exceptions.ProductNotFoundException;
+import com.example.loadtest.FakeStoreStub;
+import com.example.models.Product;
+import com.example.services.ProductService;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+
+// Full path of ProductService.getProductById in the running application, for each tier the product is served from
+//   near     -> the product is in the near cache
+//   redis    -> the near cache is cleared before each call, the product is read from Redis
+//   upstream -> the product is evicted before each call, it is fetched from a local stub of the Fake Store API, see FakeStoreStub
+// Needs a local Redis on localhost:6379 (spring.data.redis.* can be passed with -jvmArgs), the keys use key version 999
+// so they don't mix with the ones of a running application
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetProductByIdBenchmark {
+
+    private static final long PRODUCT_ID = 1;
+
+    @Param({"near", "redis", "upstream"})
+    private String tier;
+
+    private FakeStoreStub stubUpstream;
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ProductCache productCache;
+    private Cache<String, Object> productNearCache;
+
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void startApplication() throws IOException, ProductNotFoundException {
+        stubUpstream = new FakeStoreStub(0, 20, Duration.ZERO, Duration.ZERO, 0);
+        context = new SpringApplicationBuilder(Calling3rdPartyApiApplication.class)
+                .run(
+                        "--server.port=0",
+                        "--logging.level.root=WARN",
+                        "--logging.level.org.springframework.*=WARN",
+                        "--product.cache.key-version=999",
+                        "--product.cache.refresh.enabled=false",
+                        "--product.warm-up.enabled=false",
+                        "--upstream.fake-store-base-url=" + stubUpstream.baseUrl());
+        productService = context.getBean(ProductService.class);
+        productCache = context.getBean(ProductCache.class);
+        productNearCache = context.getBean("productNearCache", Cache.class);
+        productService.getProductById(PRODUCT_ID);
+    }
+
+
+    @Setup(Level.Invocation)
+    public void dropCachedProduct() {
+        switch(tier) {
+            case "redis" -> productNearCache.invalidate(productCache.productKey(PRODUCT_ID));
+            case "upstream" -> productCache.evictProduct(PRODUCT_ID);
+            default -> { }
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+        stubUpstream.close();
+    }
+
+
+    @Benchmark
+    public Product getProductById() throws ProductNotFoundException {
+        return productService.getProductById(PRODUCT_ID);
+    }
+
+
+}
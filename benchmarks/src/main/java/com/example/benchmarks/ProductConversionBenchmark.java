@@ -0,0 +1,36 @@
+package com.example.benchmarks;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.example.models.Product;
+import com.example.services.FakeStoreProductService;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+
+// Cost of converting a response of the Fake Store API to a Product, paid for every product of every miss
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductConversionBenchmark {
+
+    // The conversion doesn't use any of the beans of the service, so the service is created without Spring
+    private final FakeStoreProductService service = new FakeStoreProductService();
+
+    private FakeStoreProductDto dto;
+
+
+    @Setup
+    public void setUp() {
+        dto = Fixtures.dto(1);
+    }
+
+
+    @Benchmark
+    public Product convertFakeStoreProductDtoToProduct() {
+        return service.convertFakeStoreProductDtoToProduct(dto);
+    }
+}
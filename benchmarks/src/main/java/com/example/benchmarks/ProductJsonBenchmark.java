@@ -0,0 +1,52 @@
+package com.example.benchmarks;
+
+import com.example.models.Product;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// Jackson serialization of the lists of products returned by GET /products and GET /products/category/{category}
+// size 20 is the catalog of the Fake Store API, 1000 is a catalog after growth
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductJsonBenchmark {
+
+    private static final TypeReference<List<Product>> PRODUCT_LIST = new TypeReference<>() {
+    };
+
+    @Param({"20", "1000"})
+    private int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private List<Product> products;
+    private byte[] json;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        products = Fixtures.products(size);
+        json = objectMapper.writeValueAsBytes(products);
+    }
+
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(products);
+    }
+
+
+    @Benchmark
+    public List<Product> deserialize() throws IOException {
+        return objectMapper.readValue(json, PRODUCT_LIST);
+    }
+}
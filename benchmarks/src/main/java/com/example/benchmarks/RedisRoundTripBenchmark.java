@@ -0,0 +1,76 @@
+package com.example.benchmarks;
+
+import com.example.cache.codec.CacheValueFormat;
+import com.example.cache.codec.CacheValueSerializer;
+import com.example.models.Product;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// SET and GET of a value in each format against a local Redis, i.e. the codec plus the bytes on the wire
+// Needs a Redis on localhost:6379, or the one given with -Dredis.host and -Dredis.port in the JVM arguments of JMH (-jvmArgs)
+// The keys are written under product:bench: and deleted after the trial
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisRoundTripBenchmark {
+
+    @Param({"JDK", "JSON", "BINARY"})
+    private CacheValueFormat format;
+
+    @Param({"1", "20"})
+    private int size;
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisTemplate<String, Object> redisTemplate;
+    private String key;
+    private Object value;
+
+
+    @Setup
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        // Same serializers as RedisTemplateConfig
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setValueSerializer(new CacheValueSerializer(format, false));
+        redisTemplate.afterPropertiesSet();
+        key = "product:bench:" + format + ":" + size;
+        List<Product> products = Fixtures.products(size);
+        value = size == 1 ? products.get(0) : products;
+        redisTemplate.opsForValue().set(key, value);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        redisTemplate.delete(key);
+        connectionFactory.destroy();
+    }
+
+
+    @Benchmark
+    public void set() {
+        redisTemplate.opsForValue().set(key, value);
+    }
+
+
+    @Benchmark
+    public Object get() {
+        return redisTemplate.opsForValue().get(key);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.loadtest;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+// Local stand-in for the Fake Store API, so the service can be load tested without calling fakestoreapi.com
+// Answers the same endpoints with a generated catalog of catalogSize products in the 4 categories of the Fake Store API
+//   GET /products, /products/{id}, /products/categories, /products/category/{category}
+//   POST /products, PUT, PATCH and DELETE /products/{id} answer with a product, nothing is stored
+// Every answer is delayed by latency plus a random part of up to jitter, and a share errorRate of the calls is answered with 503
+// The delay is waited on a scheduler, not on a thread per call, so the stub itself doesn't limit the number of calls in flight
+
+// Run on its own and point the service at it with --upstream.fake-store-base-url=http://localhost:9090
+//   mvn -f benchmarks/pom.xml exec:java -Dexec.mainClass=com.example.loadtest.FakeStoreStub -Dstub.port=9090 -Dstub.latency=100ms
+
+public class FakeStoreStub implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static final String[] CATEGORIES = {"electronics", "jewelery", "men's clothing", "women's clothing"};
+
+    private final Duration latency;
+    private final Duration jitter;
+    private final double errorRate;
+
+    private final HttpServer server;
+    private final ExecutorService serverExecutor;
+    private final ScheduledExecutorService responder;
+
+    // Answers are serialized once, a call only copies the bytes
+    private final byte[] allProducts;
+    private final byte[] categories;
+    private final Map<String, byte[]> productsByCategory = new HashMap<>();
+    private final List<byte[]> productsById = new ArrayList<>();
+
+
+    public FakeStoreStub(int port, int catalogSize, Duration latency, Duration jitter, double errorRate) throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+
+        List<FakeStoreProductDto> catalog = new ArrayList<>(catalogSize);
+        Map<String, List<FakeStoreProductDto>> byCategory = new LinkedHashMap<>();
+        for(long id = 1; id <= catalogSize; id++) {
+            FakeStoreProductDto product = product(id);
+            catalog.add(product);
+            productsById.add(json(product));
+            byCategory.computeIfAbsent(product.getCategory(), category -> new ArrayList<>()).add(product);
+        }
+        allProducts = json(catalog);
+        categories = json(byCategory.keySet());
+        byCategory.forEach((category, products) -> productsByCategory.put(category, json(products)));
+
+        // Without TCP_NODELAY the body of an answer waits for the delayed ACK of its headers, which adds 40ms to every call
+        // on a kept-alive connection. The JDK reads it once, when the first server is created
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        responder = Executors.newSingleThreadScheduledExecutor();
+        server.setExecutor(serverExecutor);
+        server.createContext("/products", this::handle);
+        server.start();
+    }
+
+
+    public static FakeStoreProductDto product(long id) {
+        FakeStoreProductDto product = new FakeStoreProductDto();
+        product.setId(id);
+        product.setTitle("Product " + id);
+        product.setDescription("Product " + id + " Description, a few sentences long like the descriptions of the Fake Store API");
+        product.setPrice(100.0 + id);
+        product.setImage("https://fakestoreapi.com/img/" + id + ".jpg");
+        product.setCategory(CATEGORIES[(int) (id % CATEGORIES.length)]);
+        return product;
+    }
+
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+
+    private void handle(HttpExchange exchange) {
+        byte[] body = ThreadLocalRandom.current().nextDouble() < errorRate ? null : answer(exchange);
+        long delayNanos = latency.toNanos() + (jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toNanos()));
+        if(delayNanos == 0) {
+            respond(exchange, body);
+        } else {
+            responder.schedule(() -> respond(exchange, body), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+
+    // The body of the answer, null for a 503 and an empty array for a 404 so that the service sees no product
+    private byte[] answer(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String[] segments = path.substring(1).split("/");
+        if(segments.length == 1) {
+            // POST /products creates a product, it is given the next id
+            return "POST".equals(exchange.getRequestMethod()) ? json(product(productsById.size() + 1)) : allProducts;
+        }
+        if(segments.length == 2 && "categories".equals(segments[1])) {
+            return categories;
+        }
+        if(segments.length == 3 && "category".equals(segments[1])) {
+            return productsByCategory.getOrDefault(segments[2], new byte[0]);
+        }
+        try {
+            int id = Integer.parseInt(segments[1]);
+            return id >= 1 && id <= productsById.size() ? productsById.get(id - 1) : new byte[0];
+        } catch (NumberFormatException ex) {
+            return new byte[0];
+        }
+    }
+
+
+    private static void respond(HttpExchange exchange, byte[] body) {
+        try {
+            if(body == null) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            // The Fake Store API answers 200 with an empty body for an unknown product
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            if(body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } catch (IOException ex) {
+            // The client has gone away, nothing to answer
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    private static byte[] json(Object value) {
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes(value);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    @Override
+    public void close() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        responder.shutdownNow();
+    }
+
+
+    // Settings from system properties i.e. -Dstub.port=9090 -Dstub.catalog-size=1000 -Dstub.latency=100ms -Dstub.jitter=50ms -Dstub.error-rate=0.01
+    public static FakeStoreStub fromSystemProperties(int defaultPort) throws IOException {
+        return new FakeStoreStub(
+                Integer.getInteger("stub.port", defaultPort),
+                Integer.getInteger("stub.catalog-size", 20),
+                LoadTest.duration(System.getProperty("stub.latency", "0ms")),
+                LoadTest.duration(System.getProperty("stub.jitter", "0ms")),
+                Double.parseDouble(System.getProperty("stub.error-rate", "0")));
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        FakeStoreStub stub = fromSystemProperties(9090);
+        Runtime.getRuntime().addShutdownHook(new Thread(stub::close));
+        System.out.println("Fake Store API stub listening on " + stub.baseUrl());
+        Thread.currentThread().join();
+    }
+}
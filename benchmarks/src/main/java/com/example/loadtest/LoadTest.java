@@ -0,0 +1,242 @@
+package com.example.loadtest;
+
+import com.example.Calling3rdPartyApiApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Sends requests to the /products endpoints at a fixed rate and reports the throughput and the latency percentiles of each endpoint
+// The requests are sent on schedule whether or not the previous ones have been answered (open model), and the latency is measured
+// from the time a request was due, so a stalled service shows up as high latency instead of as fewer requests (coordinated omission)
+
+// Without load.target the Fake Store API stub and the application are started in this JVM, so the test runs offline i.e. in CI
+// and needs only a local Redis. With load.target it drives an application which is already running
+//   mvn -DskipTests install
+//   mvn -f benchmarks/pom.xml compile exec:java@load-test -Dload.rate=500 -Dload.duration=60s -Dstub.latency=100ms -Dstub.error-rate=0.01
+// The thread modes are compared by running it once per mode with a slow stub, so that more requests are in flight than Tomcat has threads
+// and the report of each run holds the peak number of threads and the heap of this JVM next to the latencies (virtual threads need Java 21)
+//   mvn -f benchmarks/pom.xml compile exec:java@load-test -Dload.rate=1000 -Dstub.latency=500ms -Dload.report=target/load-test-platform.json
+//   mvn -f benchmarks/pom.xml compile exec:java@load-test -Dload.rate=1000 -Dstub.latency=500ms -Dload.report=target/load-test-virtual.json
+//       -Dload.app-properties=spring.profiles.active=virtual-threads
+// and the reactive mode likewise with -Dload.app-properties=product.service.mode=reactive -Dload.paths=/products,/products/categories/electronics
+// as its controller has no query parameters, compared with a blocking run of the same paths
+
+// Settings (system properties)
+//   load.target          base URL of a running application, default none i.e. start the stub and the application here
+//   load.app-properties  properties of the application started here, comma separated i.e. spring.profiles.active=virtual-threads
+//   load.rate            requests per second, default 200
+//   load.duration        time measured, default 30s
+//   load.warmup          time sent before measuring, default 10s
+//   load.paths           paths sent in turn, {id} is replaced by a random id up to load.ids
+//                        default /products?ids={id},/products,/products?category=electronics&sort=-price&limit=5,/products/categories/electronics
+//                        /products/{id} and /products/categories need a token with the ADMIN scope, see SecurityConfig
+//   load.ids             highest product id requested, default stub.catalog-size
+//   load.token           bearer token sent with every request, needed for /products/{id}
+//   load.timeout         timeout of a request, default 10s
+//   load.report          JSON report, default target/load-test-result.json
+//   load.max-error-rate  the run fails (exit code 1) when more requests fail, default 0.01
+//   stub.*               settings of the stub, see FakeStoreStub
+
+public class LoadTest {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Results of one path
+    private static class PathStats {
+        final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+        final LongAdder errors = new LongAdder();
+        final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        int rate = Integer.getInteger("load.rate", 200);
+        Duration duration = duration(System.getProperty("load.duration", "30s"));
+        Duration warmup = duration(System.getProperty("load.warmup", "10s"));
+        List<String> paths = List.of(System.getProperty("load.paths",
+                "/products?ids={id},/products,/products?category=electronics&sort=-price&limit=5,/products/categories/electronics").split(","));
+        int ids = Integer.getInteger("load.ids", Integer.getInteger("stub.catalog-size", 20));
+        String token = System.getProperty("load.token");
+        Duration timeout = duration(System.getProperty("load.timeout", "10s"));
+        File report = new File(System.getProperty("load.report", "target/load-test-result.json"));
+        double maxErrorRate = Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+
+        String target = System.getProperty("load.target");
+        List<String> appProperties = System.getProperty("load.app-properties", "").isBlank() ? List.of() : List.of(System.getProperty("load.app-properties").split(","));
+        FakeStoreStub stub = null;
+        ConfigurableApplicationContext application = null;
+        if(target == null) {
+            stub = FakeStoreStub.fromSystemProperties(0);
+            List<String> applicationArgs = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--logging.level.root=WARN",
+                    "--logging.level.org.springframework.*=WARN",
+                    "--upstream.fake-store-base-url=" + stub.baseUrl()));
+            appProperties.forEach(property -> applicationArgs.add("--" + property));
+            application = new SpringApplicationBuilder(Calling3rdPartyApiApplication.class).run(applicationArgs.toArray(new String[0]));
+            target = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+        }
+        // Threads and heap of this JVM, which holds the application unless load.target is given
+        System.gc();
+        long baselineHeap = usedHeap();
+        AtomicLong peakHeap = new AtomicLong(baselineHeap);
+        AtomicInteger peakThreads = new AtomicInteger();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            peakHeap.accumulateAndGet(usedHeap(), Math::max);
+            peakThreads.accumulateAndGet(ManagementFactory.getThreadMXBean().getThreadCount(), Math::max);
+        }, 0, 20, TimeUnit.MILLISECONDS);
+
+        Map<String, PathStats> stats = new LinkedHashMap<>();
+        paths.forEach(path -> stats.put(path, new PathStats()));
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .executor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors())))
+                .build();
+
+        System.out.printf("Sending %d requests/s to %s for %s after a warm-up of %s%n", rate, target, duration, warmup);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        long sent = 0;
+        for(long due = start; due < end; due = start + ++sent * intervalNanos) {
+            long wait = due - System.nanoTime();
+            if(wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            String path = paths.get((int) (sent % paths.size()));
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target + path.replace("{id}", String.valueOf(1 + ThreadLocalRandom.current().nextInt(ids)))))
+                    .timeout(timeout)
+                    .GET();
+            if(token != null) {
+                request.header("Authorization", "Bearer " + token);
+            }
+            boolean measured = due >= measureFrom;
+            long dueNanos = due;
+            PathStats pathStats = stats.get(path);
+            CompletableFuture<?> future = client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, ex) -> {
+                        if(!measured) {
+                            return;
+                        }
+                        pathStats.latency.recordValue(Math.min(System.nanoTime() - dueNanos, HIGHEST_TRACKABLE_NANOS));
+                        String status = ex != null ? ex.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                        pathStats.statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+                        if(ex != null || response.statusCode() >= 400) {
+                            pathStats.errors.increment();
+                        }
+                    });
+            if(measured) {
+                pending.add(future);
+            }
+        }
+        // Wait for the answers of the requests sent last
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).handle((result, ex) -> null).get(timeout.toSeconds() + 5, TimeUnit.SECONDS);
+        sampler.shutdownNow();
+        double seconds = duration.toNanos() / 1e9;
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        long errors = 0;
+        System.out.printf("%n%-55s %9s %9s %8s %9s %9s %9s %9s %9s%n", "path", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for(Map.Entry<String, PathStats> entry : stats.entrySet()) {
+            PathStats pathStats = entry.getValue();
+            total.add(pathStats.latency);
+            errors += pathStats.errors.sum();
+            results.put(entry.getKey(), summary(pathStats.latency, pathStats.errors.sum(), seconds, pathStats.statuses));
+            print(entry.getKey(), pathStats.latency, pathStats.errors.sum(), seconds);
+        }
+        print("all", total, errors, seconds);
+        Map<String, Object> overall = summary(total, errors, seconds, Map.of());
+        overall.put("targetRate", rate);
+        results.put("all", overall);
+        if(application != null) {
+            // Stacks of platform threads are outside the heap (reserved by -Xss, 1 MB by default), stacks of virtual threads are on the heap
+            Map<String, Object> jvm = new LinkedHashMap<>();
+            jvm.put("appProperties", appProperties);
+            jvm.put("javaVersion", Runtime.version().toString());
+            jvm.put("peakThreads", peakThreads.get());
+            jvm.put("peakHeapGrowthMB", (peakHeap.get() - baselineHeap) / (1024.0 * 1024.0));
+            results.put("jvm", jvm);
+        }
+
+        report.getAbsoluteFile().getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, results);
+        System.out.println("\nReport written to " + report.getPath());
+
+        if(application != null) {
+            application.close();
+            stub.close();
+        }
+        double errorRate = total.getTotalCount() == 0 ? 1 : (double) errors / total.getTotalCount();
+        if(errorRate > maxErrorRate) {
+            System.out.printf("Error rate %.4f is above load.max-error-rate %.4f%n", errorRate, maxErrorRate);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+
+    private static Map<String, Object> summary(Histogram latency, long errors, double seconds, Map<String, LongAdder> statuses) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", latency.getTotalCount());
+        summary.put("throughput", latency.getTotalCount() / seconds);
+        summary.put("errors", errors);
+        Map<String, Long> statusCounts = new TreeMap<>();
+        statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+        if(!statusCounts.isEmpty()) {
+            summary.put("statuses", statusCounts);
+        }
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for(double percentile : new double[]{50, 90, 99, 99.9}) {
+            percentiles.put("p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile)), millis(latency.getValueAtPercentile(percentile)));
+        }
+        percentiles.put("max", millis(latency.getMaxValue()));
+        summary.put("latencyMillis", percentiles);
+        return summary;
+    }
+
+
+    private static void print(String path, Histogram latency, long errors, double seconds) {
+        System.out.printf("%-55s %9d %9.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", path, latency.getTotalCount(), latency.getTotalCount() / seconds, errors,
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)), millis(latency.getMaxValue()));
+    }
+
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+
+    // Durations are written like the ones of application.properties i.e. 100ms, 30s, 5m
+    static Duration duration(String value) {
+        return DurationStyle.detectAndParse(value);
+    }
+}
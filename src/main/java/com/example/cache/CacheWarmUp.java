@@ -0,0 +1,89 @@
+package com.example.cache;
+
+import com.example.configs.BatchProperties;
+import com.example.configs.WarmUpProperties;
+import com.example.services.ProductCacheMaintenance;
+import com.example.services.ProductService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+// Fills the cache on startup so that the first requests after a deploy or a flush of Redis don't all go to the Fake Store API
+// Loads the list of all products, the categories and the products requested most in the previous run (kept in Redis by HotProductTracker)
+// Spring Boot reports the application ready (/actuator/health/readiness) only after all the ApplicationRunners are done,
+// so the load balancer sends traffic once the warm-up is done or its time budget is over
+// Entries which are already cached are not fetched again, so a restart with a warm Redis costs no calls to the Fake Store API
+
+@Component
+@ConditionalOnProperty(name = "product.warm-up.enabled", havingValue = "true", matchIfMissing = true)
+public class CacheWarmUp implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmUp.class);
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductCacheMaintenance productCacheMaintenance;
+
+    @Autowired
+    private HotProductTracker hotProductTracker;
+
+    @Autowired
+    private WarmUpProperties properties;
+
+    @Autowired
+    private BatchProperties batchProperties;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        // The list of all products and the categories are loaded at the same time, the hot products once the list is there
+        // as most of them are taken from it, the rest are fetched with the bounded parallelism of the batch lookup
+        CompletableFuture<Void> catalog = taskExecutor.submitCompletable(productService::getAllProducts)
+                .thenAccept(products -> productCacheMaintenance.refreshProducts(hotIds(), products));
+        CompletableFuture<Void> categories = taskExecutor.submitCompletable(productService::getAllCategories).thenAccept(result -> {});
+        CompletableFuture<Void> hotProducts = catalog.handle((result, ex) -> null).thenRun(this::loadMissingHotProducts);
+        try {
+            CompletableFuture.allOf(catalog, categories, hotProducts).get(properties.getTimeBudget().toMillis(), TimeUnit.MILLISECONDS);
+            log.info("Cache warm-up done in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (TimeoutException ex) {
+            // Report ready anyway, the warm-up goes on in the background and the requests fill the rest of the cache
+            log.warn("Cache warm-up not done within {}, accepting traffic anyway", properties.getTimeBudget());
+        } catch (ExecutionException ex) {
+            // The Fake Store API or Redis is down, the requests will fill the cache once they are back
+            log.warn("Cache warm-up failed after {} ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), ex.getCause().toString());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private List<Long> hotIds() {
+        return hotProductTracker.topIds(properties.getHotProductsLimit());
+    }
+
+
+    // Hot products which were not found in the list of all products or not cached because the list could not be loaded
+    private void loadMissingHotProducts() {
+        List<Long> ids = hotIds();
+        // Cached products are found with one lookup, only the missing ones are fetched. A batch holds at most maxIds ids
+        for(int from = 0; from < ids.size(); from += batchProperties.getMaxIds()) {
+            productService.getProductsByIds(ids.subList(from, Math.min(ids.size(), from + batchProperties.getMaxIds())));
+        }
+    }
+}
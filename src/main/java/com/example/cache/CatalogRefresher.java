@@ -0,0 +1,164 @@
+package com.example.cache;
+
+import com.example.configs.ProductCacheProperties;
+import com.example.models.Product;
+import com.example.services.ProductCacheMaintenance;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// Reloads the list of all products and the most requested products in the background before they expire,
+// so that no request has to wait for the Fake Store API because an entry just expired (stale-while-revalidate)
+// The old entries are served until the new ones are written, and when the Fake Store API fails they are kept for up to maxStaleness
+// Only one node of the cluster refreshes at a time, the one holding the Redis leader lock product:v1:refresh:leader
+
+@Component
+@ConditionalOnProperty(name = "product.cache.refresh.enabled", havingValue = "true", matchIfMissing = true)
+public class CatalogRefresher {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogRefresher.class);
+
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    // Extends the lease only if it is still held by this node, else another node has taken over after our lease expired
+    private static final RedisScript<Long> RENEW_LEASE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end", Long.class);
+
+    @Autowired
+    private ProductCacheMaintenance productCacheMaintenance;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private HotProductTracker hotProductTracker;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductCacheProperties properties;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Only touched by the refresh task, which never runs twice at the same time
+    private int consecutiveFailures;
+    private Instant lastSuccess = Instant.now();
+
+    private Counter successes;
+    private Counter failures;
+    private Counter skipped;
+
+
+    @PostConstruct
+    public void registerMetrics() {
+        // product.cache.refresh{result=success|failure|skipped}, skipped means another node is the leader
+        successes = meterRegistry.counter("product.cache.refresh", "result", "success");
+        failures = meterRegistry.counter("product.cache.refresh", "result", "failure");
+        skipped = meterRegistry.counter("product.cache.refresh", "result", "skipped");
+    }
+
+
+    // The first refresh runs one interval after startup, the cache is filled on startup by the requests or the warm-up
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        schedule(properties.getRefresh().getInterval());
+    }
+
+
+    // Each run schedules the next one, one interval later after a success and after a growing backoff after a failure
+    void run() {
+        Duration next = properties.getRefresh().getInterval();
+        try {
+            // Every node adds its request counts, so the leader knows the most requested products of the whole cluster
+            hotProductTracker.flush();
+            if(isLeader()) {
+                refresh();
+                consecutiveFailures = 0;
+                lastSuccess = Instant.now();
+                successes.increment();
+            } else {
+                skipped.increment();
+            }
+        } catch (RuntimeException ex) {
+            failures.increment();
+            consecutiveFailures++;
+            next = backoff();
+            log.warn("Catalog refresh failed {} time(s) in a row, retrying in {}: {}", consecutiveFailures, next, ex.toString());
+            keepStaleEntries();
+        } finally {
+            schedule(next);
+        }
+    }
+
+
+    private void refresh() {
+        // Requests missing the cache meanwhile wait for this call instead of making their own, see SingleFlight
+        List<Product> products = productCacheMaintenance.refreshAllProducts();
+        List<Long> hotIds = hotProductTracker.topIds(properties.getRefresh().getHotProductsLimit());
+        // Older requests count less at the next refresh
+        hotProductTracker.decay();
+        // The most requested products are taken from the fresh list of all products, so they cost no extra call to the Fake Store API
+        productCacheMaintenance.refreshProducts(hotIds, products);
+    }
+
+
+    private boolean isLeader() {
+        String leaderKey = "product:v" + properties.getKeyVersion() + ":refresh:leader";
+        Duration lease = properties.getRefresh().getLeaderLease();
+        if(Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(leaderKey, NODE_ID, lease))) {
+            return true;
+        }
+        Long renewed = stringRedisTemplate.execute(RENEW_LEASE, List.of(leaderKey), NODE_ID, String.valueOf(lease.toMillis()));
+        return renewed != null && renewed == 1;
+    }
+
+
+    // Keeps serving the last list of all products while the Fake Store API is down, but never longer than maxStaleness
+    private void keepStaleEntries() {
+        if(Duration.between(lastSuccess, Instant.now()).compareTo(properties.getRefresh().getMaxStaleness()) >= 0) {
+            return;
+        }
+        try {
+            productCache.extendAllProducts(properties.getCatalogTtl());
+        } catch (RuntimeException ex) {
+            log.warn("Could not extend the cached list of all products: {}", ex.toString());
+        }
+    }
+
+
+    // Exponential backoff with jitter i.e. 5s, 10s, 20s ... up to maxBackoff, each between half and the full value
+    // so that the nodes don't all call the Fake Store API again at the same moment
+    private Duration backoff() {
+        ProductCacheProperties.Refresh refresh = properties.getRefresh();
+        long maxMillis = refresh.getMaxBackoff().toMillis();
+        long millis = refresh.getInitialBackoff().toMillis() << Math.min(consecutiveFailures - 1, 20);
+        millis = Math.min(maxMillis, millis);
+        return Duration.ofMillis(millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1));
+    }
+
+
+    private void schedule(Duration delay) {
+        taskScheduler.schedule(this::run, Instant.now().plus(delay));
+    }
+}
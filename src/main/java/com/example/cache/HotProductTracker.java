@@ -0,0 +1,95 @@
+package com.example.cache;
+
+import com.example.configs.ProductCacheProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.zset.Aggregate;
+import org.springframework.data.redis.connection.zset.Weights;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Counts how often each product is requested, so that the most requested products can be refreshed before they expire
+// Requests are counted in memory and added to a Redis sorted set product:v1:hot once per refresh, so a request costs no Redis call
+// The sorted set holds the counts of all the nodes and is halved at every refresh, so products which are no longer requested drop out
+// The counts are only flushed by the refresh, so nothing is counted while it is disabled and at most trackedProductsMaximumSize ids
+// are counted in between, an id which is not counted yet waits for the next round once the map is full
+
+@Component
+public class HotProductTracker {
+
+    private final ConcurrentMap<Long, LongAdder> counts = new ConcurrentHashMap<>();
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductCacheProperties properties;
+
+
+    public void record(long id) {
+        if(!properties.getRefresh().isEnabled()) {
+            return;
+        }
+        LongAdder count = counts.get(id);
+        if(count == null) {
+            // The size is checked before the id is added, so a few concurrent new ids might go over it by the number of threads
+            if(counts.size() >= properties.getRefresh().getTrackedProductsMaximumSize()) {
+                return;
+            }
+            count = counts.computeIfAbsent(id, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+
+    // Adds the counts of this node to the sorted set in one pipeline and starts counting from zero again
+    public void flush() {
+        Map<Long, Long> flushed = new HashMap<>();
+        for(Long id : counts.keySet()) {
+            // A request counted between the sum and the removal is lost, the counts only need to be roughly right
+            LongAdder count = counts.remove(id);
+            if(count != null) {
+                flushed.put(id, count.sum());
+            }
+        }
+        if(flushed.isEmpty()) {
+            return;
+        }
+        String key = hotProductsKey();
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                flushed.forEach((id, count) -> stringOperations.opsForZSet().incrementScore(key, String.valueOf(id), count));
+                return null;
+            }
+        });
+    }
+
+
+    // Halves all the counts and drops the products which were hardly requested lately
+    public void decay() {
+        String key = hotProductsKey();
+        stringRedisTemplate.opsForZSet().unionAndStore(key, List.of(), key, Aggregate.SUM, Weights.of(0.5));
+        stringRedisTemplate.opsForZSet().removeRangeByScore(key, 0, 0.5);
+    }
+
+
+    // Ids of the most requested products of all the nodes, the most requested first
+    public List<Long> topIds(int limit) {
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(hotProductsKey(), 0, limit - 1);
+        return ids == null ? List.of() : ids.stream().map(Long::valueOf).toList();
+    }
+
+
+    private String hotProductsKey() {
+        return "product:v" + properties.getKeyVersion() + ":hot";
+    }
+}
@@ -0,0 +1,695 @@
+package com.example.cache;
+
+import com.example.catalog.CatalogPage;
+import com.example.configs.ProductCacheProperties;
+import com.example.models.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.PoolException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.stereotype.Component;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+// Two tier cache for products: an in-process near cache (L1) in front of Redis (L2)
+// Reads are served from the heap when possible, else from Redis and the value is kept in the heap for the next read
+// Every write or eviction is broadcast over Redis pub/sub so that the other nodes drop their stale in-process copy
+
+// Each entry is stored under its own Redis key because fields of a Redis hash can't expire, keys look like
+//   product:v1:id:{id}   -> a single Product, expires after productTtl
+//   product:v1:catalog:ids -> sorted set of the ids of all the Products (score = id), expires after catalogTtl
+//   product:v1:categories -> list of all the categories, expires after categoriesTtl
+//   product:v1:category:{category} -> list of the Products of a category, expires after categoryTtl
+// where v1 is the keyVersion, so a change of the Product class only needs a new version instead of a flush of Redis
+// The list of all products is not stored as one value: it is the products of the id index, read with one MGET and
+// kept assembled in the near cache under product:v1:all, so a change of one product writes only that product
+// Every entry also has a stale copy i.e. product:v1:stale:id:{id} which lives for staleTtl, it is only read when
+// the Fake Store API can't be called (circuit breaker open) so that the last known value is served instead of an error
+// product:v1:catalog:version changes with every write of products and of the id index, it is increased in the same round trip as the write
+// by a random step, so a version is not handed out twice when the counter is lost (flush or eviction) and starts again
+// A list of all products read from Redis is stamped with the version it was read at, so two lists read at the same version hold
+// the same products and the catalog indexes built for one are reused for the other, see ProductCatalog
+
+@Component
+public class ProductCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCache.class);
+
+    // Identifies this node in invalidation messages, so that a node doesn't drop the entry it has just written itself
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    private static final String MESSAGE_SEPARATOR = "|";
+
+    // A single invalidation message can hold several keys separated by new lines
+    private static final String KEY_SEPARATOR = "\n";
+
+    // Replaces both indexes i.e. KEYS[1] with ttl ARGV[1] and KEYS[2] with ttl ARGV[2] by the ids in ARGV[4..], empty ids delete them
+    // and increases the version KEYS[3] by ARGV[3]
+    // A script runs atomically, so readers never see a half written index and no partly written key is left without expiry
+    // ZADD takes the ids in chunks because Lua can only unpack a few thousand arguments at once
+    private static final RedisScript<Long> REPLACE_INDEXES = new DefaultRedisScript<>(
+            "for k = 1, 2 do " +
+            "  redis.call('del', KEYS[k]) " +
+            "  for i = 4, #ARGV, 500 do " +
+            "    local members = {} " +
+            "    for j = i, math.min(i + 499, #ARGV) do members[#members + 1] = ARGV[j]; members[#members + 1] = ARGV[j] end " +
+            "    redis.call('zadd', KEYS[k], unpack(members)) " +
+            "  end " +
+            "  if #ARGV > 3 then redis.call('pexpire', KEYS[k], ARGV[k]) end " +
+            "end " +
+            "return redis.call('incrby', KEYS[3], ARGV[3])", Long.class);
+
+    // ZADD of ARGV[1] to each of the indexes KEYS[1] and KEYS[2] only if it exists, else a new product would make an index holding just that product
+    // and increases the version KEYS[3] by ARGV[2]
+    private static final RedisScript<Long> ADD_IF_EXISTS = new DefaultRedisScript<>(
+            "for k = 1, 2 do " +
+            "  if redis.call('exists', KEYS[k]) == 1 then redis.call('zadd', KEYS[k], ARGV[1], ARGV[1]) end " +
+            "end " +
+            "return redis.call('incrby', KEYS[3], ARGV[2])", Long.class);
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private Cache<String, Object> productNearCache;
+
+    @Autowired
+    private ProductCacheProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // The response body and ETag of a value are computed when it is written, so the requests reading it don't have to
+    @Autowired
+    private ResponseBodies responseBodies;
+
+    // Version each list of all products was read at, held weakly and compared by identity like ResponseBodies
+    private final Cache<Object, Long> catalogVersions = Caffeine.newBuilder().weakKeys().build();
+
+    private Counter nearHits;
+    private Counter nearMisses;
+    private Counter redisHits;
+    private Counter redisMisses;
+    private Counter writeErrors;
+
+
+    @PostConstruct
+    public void registerMetrics() {
+        // Hit and miss counters for each tier i.e. product.cache.gets{tier=near,result=hit}
+        nearHits = meterRegistry.counter("product.cache.gets", "tier", "near", "result", "hit");
+        nearMisses = meterRegistry.counter("product.cache.gets", "tier", "near", "result", "miss");
+        redisHits = meterRegistry.counter("product.cache.gets", "tier", "redis", "result", "hit");
+        redisMisses = meterRegistry.counter("product.cache.gets", "tier", "redis", "result", "miss");
+        // Writes, evictions and invalidation messages that Redis did not take
+        writeErrors = meterRegistry.counter("product.cache.write.errors");
+    }
+
+
+    public Product getProduct(long id) {
+        return (Product) get(productKey(id));
+    }
+
+
+    public void putProduct(long id, Product product) {
+        put(productKey(id), product, properties.getProductTtl(), true);
+    }
+
+
+    public void evictProduct(long id) {
+        evictProducts(List.of(id));
+    }
+
+
+    // Drops the given products with a single DEL and a single invalidation message, however many they are
+    // Their ids stay in the id index, so the next read of the list of all products misses one of them and fetches the list again
+    public void evictProducts(Collection<Long> ids) {
+        evictProducts(ids, false);
+    }
+
+
+    // Drops products which no longer exist, their ids are removed from the id index as well so the list of all products stays cached
+    public void deleteProducts(Collection<Long> ids) {
+        evictProducts(ids, true);
+    }
+
+
+    private void evictProducts(Collection<Long> ids, boolean deleted) {
+        if(ids.isEmpty()) {
+            return;
+        }
+        List<String> keys = ids.stream().map(this::productKey).toList();
+        List<String> deletedKeys = new ArrayList<>(keys);
+        // A deleted product must not come back as a stale copy either
+        keys.forEach(key -> deletedKeys.add(staleKey(key)));
+        Object[] members = ids.stream().map(String::valueOf).toArray();
+        // The keys and the ids in the indexes are dropped in one round trip
+        bestEffort("eviction of " + keys, () -> stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                stringOperations.delete(deletedKeys);
+                if(deleted) {
+                    stringOperations.opsForZSet().remove(catalogIndexKey(), members);
+                    stringOperations.opsForZSet().remove(staleKey(catalogIndexKey()), members);
+                }
+                stringOperations.opsForValue().increment(catalogVersionKey(), versionStep());
+                return null;
+            }
+        }));
+        // The assembled list of all products still holds the products
+        List<String> invalidatedKeys = new ArrayList<>(keys);
+        invalidatedKeys.add(catalogKey());
+        productNearCache.invalidateAll(invalidatedKeys);
+        publishInvalidation(String.join(KEY_SEPARATOR, invalidatedKeys));
+    }
+
+
+    public Product getStaleProduct(long id) {
+        return (Product) getStale(productKey(id));
+    }
+
+
+    // Returns the cached products of the given ids, ids not found in the cache are left out of the map
+    // The near cache is checked first and all the remaining ids are read from Redis with a single MGET
+    public Map<Long, Product> getProducts(Collection<Long> ids) {
+        Map<Long, Product> products = new HashMap<>();
+        List<Long> nearMissIds = new ArrayList<>();
+        for(Long id : ids) {
+            Product product = (Product) productNearCache.getIfPresent(productKey(id));
+            if(product != null) {
+                products.put(id, product);
+            } else {
+                nearMissIds.add(id);
+            }
+        }
+        nearHits.increment(products.size());
+        nearMisses.increment(nearMissIds.size());
+        if(nearMissIds.isEmpty()) {
+            return products;
+        }
+        List<String> keys = nearMissIds.stream().map(this::productKey).toList();
+        List<Object> values;
+        try {
+            values = redisTemplate.opsForValue().multiGet(keys);
+        } catch (SerializationException ex) {
+            // One of the values was written by an incompatible version of the class, fetch all of them again
+            values = null;
+        }
+        int hits = 0;
+        for(int i = 0; values != null && i < keys.size(); i++) {
+            if(values.get(i) instanceof Product product) {
+                products.put(nearMissIds.get(i), product);
+                productNearCache.put(keys.get(i), product);
+                hits++;
+            }
+        }
+        redisHits.increment(hits);
+        redisMisses.increment(nearMissIds.size() - hits);
+        return products;
+    }
+
+
+    // Writes all the given products to Redis in a single pipeline i.e. one round trip instead of one per product
+    public void putProducts(Map<Long, Product> products) {
+        if(products.isEmpty()) {
+            return;
+        }
+        List<String> keys = writeProducts(products, properties.getProductTtl());
+        if(!keys.isEmpty()) {
+            publishInvalidation(String.join(KEY_SEPARATOR, keys));
+        }
+    }
+
+
+    // Writes the products and their stale copies in one pipeline and keeps them in the near cache, returns their keys
+    // or no keys when Redis did not take the write
+    private List<String> writeProducts(Map<Long, Product> products, Duration ttl) {
+        boolean written = bestEffort("write of " + products.size() + " product(s)", () -> redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, Object> stringOperations = (RedisOperations<String, Object>) operations;
+                products.forEach((id, product) -> {
+                    stringOperations.opsForValue().set(productKey(id), product, ttl);
+                    stringOperations.opsForValue().set(staleKey(productKey(id)), product, properties.getStaleTtl());
+                });
+                stringOperations.opsForValue().increment(catalogVersionKey(), versionStep());
+                return null;
+            }
+        }));
+        if(!written) {
+            // The near cache might hold an older value, it is dropped so the next read goes to Redis or the Fake Store API
+            products.keySet().forEach(id -> productNearCache.invalidate(productKey(id)));
+            return List.of();
+        }
+        List<String> keys = new ArrayList<>(products.size());
+        products.forEach((id, product) -> {
+            String key = productKey(id);
+            productNearCache.put(key, product);
+            responseBodies.bodyOf(product);
+            keys.add(key);
+        });
+        return keys;
+    }
+
+
+    // The list of all products sorted by id, assembled from the id index and the products, null if the index is missing
+    // or one of its products has expired, the whole list is then fetched again
+    @SuppressWarnings("unchecked")
+    public List<Product> getAllProducts() {
+        List<Product> products = (List<Product>) productNearCache.getIfPresent(catalogKey());
+        if(products != null) {
+            nearHits.increment();
+            return products;
+        }
+        nearMisses.increment();
+        products = readCatalog(catalogIndexKey(), false);
+        if(products == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        productNearCache.put(catalogKey(), products);
+        return products;
+    }
+
+
+    // The list of all products if this node has it assembled in its near cache, else null without any call to Redis
+    @SuppressWarnings("unchecked")
+    public List<Product> getNearAllProducts() {
+        return (List<Product>) productNearCache.getIfPresent(catalogKey());
+    }
+
+
+    // One page of the products sorted by id read straight from the id index, only the products of the page are read from Redis
+    // The page carries the version it was read at instead of a list of all products, see CatalogPage
+    // Returns null if the index is missing, one of the products of the page has expired or the catalog changed while it was read
+    public CatalogPage getProductPage(int offset, int limit, boolean descending) {
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                stringOperations.opsForValue().get(catalogVersionKey());
+                stringOperations.opsForZSet().zCard(catalogIndexKey());
+                if(descending) {
+                    stringOperations.opsForZSet().reverseRange(catalogIndexKey(), offset, offset + limit - 1L);
+                } else {
+                    stringOperations.opsForZSet().range(catalogIndexKey(), offset, offset + limit - 1L);
+                }
+                return null;
+            }
+        });
+        Object version = results.get(0);
+        Long total = (Long) results.get(1);
+        @SuppressWarnings("unchecked")
+        Set<String> members = (Set<String>) results.get(2);
+        if(version == null || total == null || total == 0) {
+            return null;
+        }
+        List<Product> page = new ArrayList<>();
+        if(members != null && !members.isEmpty()) {
+            List<Object> values;
+            try {
+                values = redisTemplate.opsForValue().multiGet(members.stream().map(member -> productKey(Long.parseLong(member))).toList());
+            } catch (SerializationException ex) {
+                return null;
+            }
+            for(int i = 0; values != null && i < values.size(); i++) {
+                if(!(values.get(i) instanceof Product product)) {
+                    return null;
+                }
+                page.add(product);
+            }
+        }
+        if(!version.equals(stringRedisTemplate.opsForValue().get(catalogVersionKey()))) {
+            return null;
+        }
+        return new CatalogPage(page, total.intValue(), null, Long.valueOf((String) version));
+    }
+
+
+    // Writes every product under its own key and replaces the id index in one step, so readers see either the old or the new index
+    // The products live at least as long as the index, so the index never points at an expired product before it expires itself
+    public void putAllProducts(List<Product> products) {
+        Map<Long, Product> byId = new LinkedHashMap<>();
+        products.forEach(product -> byId.put(product.getId(), product));
+        List<String> keys = new ArrayList<>();
+        if(!byId.isEmpty()) {
+            Duration ttl = properties.getProductTtl().compareTo(properties.getCatalogTtl()) > 0 ? properties.getProductTtl() : properties.getCatalogTtl();
+            keys.addAll(writeProducts(byId, ttl));
+            if(keys.isEmpty()) {
+                // The index isn't written either, it would point at products which aren't there
+                return;
+            }
+        }
+        // The products are written first, so the new index never points at a product which isn't there yet
+        if(!writeIndexes(byId.keySet())) {
+            return;
+        }
+        productNearCache.put(catalogKey(), products);
+        responseBodies.bodyOf(products);
+        keys.add(catalogKey());
+        publishInvalidation(String.join(KEY_SEPARATOR, keys));
+    }
+
+
+    // Drops the id index, the next read fetches the whole list again
+    public void evictAllProducts() {
+        bestEffort("eviction of " + catalogIndexKey(), () -> stringRedisTemplate.delete(catalogIndexKey()));
+        productNearCache.invalidate(catalogKey());
+        publishInvalidation(catalogKey());
+    }
+
+
+    // Adds a new product to the id index if there is one, the product itself is written with putProduct
+    public void addToAllProducts(long id) {
+        String member = String.valueOf(id);
+        bestEffort("index add of " + member, () -> stringRedisTemplate.execute(ADD_IF_EXISTS, List.of(catalogIndexKey(), staleKey(catalogIndexKey()), catalogVersionKey()), member, String.valueOf(versionStep())));
+    }
+
+
+    // Drops the lists of the given categories with a single DEL and a single invalidation message
+    // The list of all products is assembled from the products, which the caller has already written or evicted,
+    // so only its assembled copy in the near caches is dropped and the id index is kept
+    public void evictProductLists(Collection<String> categories) {
+        List<String> keys = new ArrayList<>();
+        categories.forEach(category -> keys.add(categoryKey(category)));
+        if(!keys.isEmpty()) {
+            bestEffort("eviction of " + keys, () -> redisTemplate.delete(keys));
+        }
+        keys.add(catalogKey());
+        productNearCache.invalidateAll(keys);
+        publishInvalidation(String.join(KEY_SEPARATOR, keys));
+    }
+
+
+    // The last known list of all products, from the stale index and the stale copies of the products
+    // Products whose stale copy is gone are left out, null if the stale index is missing
+    public List<Product> getStaleAllProducts() {
+        return readCatalog(staleKey(catalogIndexKey()), true);
+    }
+
+
+    // Gives the id index and its products another ttl, used to keep serving the list of all products while it can't be refreshed
+    public void extendAllProducts(Duration ttl) {
+        Set<String> members = stringRedisTemplate.opsForZSet().range(catalogIndexKey(), 0, -1);
+        if(members == null || members.isEmpty()) {
+            return;
+        }
+        Duration productTtl = ttl.compareTo(properties.getProductTtl()) > 0 ? ttl : properties.getProductTtl();
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                stringOperations.expire(catalogIndexKey(), ttl);
+                members.forEach(member -> stringOperations.expire(productKey(Long.parseLong(member)), productTtl));
+                return null;
+            }
+        });
+    }
+
+
+    // Reads all the ids of the index in order and their products with one MGET straight from Redis
+    // A list is one lookup in the hit and miss counters like any other entry, not one per product
+    // The fresh list needs every product, the stale list leaves out the products whose stale copy is gone
+    private List<Product> readCatalog(String indexKey, boolean stale) {
+        // The version is read in the same round trip as the ids and once more after the products, a write in between changes it
+        List<Object> versionAndIds = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                stringOperations.opsForValue().get(catalogVersionKey());
+                stringOperations.opsForZSet().range(indexKey, 0, -1);
+                return null;
+            }
+        });
+        Object version = versionAndIds.get(0);
+        @SuppressWarnings("unchecked")
+        Set<String> members = (Set<String>) versionAndIds.get(1);
+        if(members == null || members.isEmpty()) {
+            return null;
+        }
+        List<String> keys = members.stream().map(member -> productKey(Long.parseLong(member))).map(key -> stale ? staleKey(key) : key).toList();
+        List<Object> values;
+        try {
+            values = redisTemplate.opsForValue().multiGet(keys);
+        } catch (SerializationException ex) {
+            return null;
+        }
+        List<Product> products = new ArrayList<>(keys.size());
+        for(int i = 0; values != null && i < values.size(); i++) {
+            if(values.get(i) instanceof Product product) {
+                products.add(product);
+            } else if(!stale) {
+                return null;
+            }
+        }
+        if(products.isEmpty()) {
+            return null;
+        }
+        // A list read while a write was applied is left without version, its indexes are then built for this list only
+        if(!stale && version != null && version.equals(stringRedisTemplate.opsForValue().get(catalogVersionKey()))) {
+            catalogVersions.put(products, Long.valueOf((String) version));
+        }
+        return products;
+    }
+
+
+    // The version the list was read from Redis at, null for a list which wasn't read from Redis or was read while it changed
+    public Long catalogVersionOf(List<Product> products) {
+        return catalogVersions.getIfPresent(products);
+    }
+
+
+    private static long versionStep() {
+        return ThreadLocalRandom.current().nextLong(1, 1L << 31);
+    }
+
+
+    // Replaces the id index and the stale id index with the given ids in one atomic script, see REPLACE_INDEXES
+    // Returns false when Redis did not take the write
+    private boolean writeIndexes(Collection<Long> ids) {
+        List<String> args = new ArrayList<>(ids.size() + 2);
+        args.add(String.valueOf(properties.getCatalogTtl().toMillis()));
+        args.add(String.valueOf(properties.getStaleTtl().toMillis()));
+        args.add(String.valueOf(versionStep()));
+        ids.forEach(id -> args.add(String.valueOf(id)));
+        return bestEffort("write of " + catalogIndexKey(), () -> stringRedisTemplate.execute(REPLACE_INDEXES, List.of(catalogIndexKey(), staleKey(catalogIndexKey()), catalogVersionKey()), args.toArray()));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public List<String> getAllCategories() {
+        return (List<String>) get(categoriesKey());
+    }
+
+
+    public void putAllCategories(List<String> categories) {
+        put(categoriesKey(), categories, properties.getCategoriesTtl(), false);
+    }
+
+
+    public void evictAllCategories() {
+        evict(categoriesKey());
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public List<String> getStaleAllCategories() {
+        return (List<String>) getStale(categoriesKey());
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public List<Product> getProductsByCategory(String category) {
+        return (List<Product>) get(categoryKey(category));
+    }
+
+
+    public void putProductsByCategory(String category, List<Product> products) {
+        put(categoryKey(category), products, properties.getCategoryTtl(), false);
+    }
+
+
+    public void evictProductsByCategory(String category) {
+        evict(categoryKey(category));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public List<Product> getStaleProductsByCategory(String category) {
+        return (List<Product>) getStale(categoryKey(category));
+    }
+
+
+    public String productKey(long id) {
+        return keyPrefix() + "id:" + id;
+    }
+
+
+    // Key of the assembled list of all products in the near cache and of its SingleFlight calls, nothing is stored under it in Redis
+    public String catalogKey() {
+        return keyPrefix() + "all";
+    }
+
+
+    public String catalogIndexKey() {
+        return keyPrefix() + "catalog:ids";
+    }
+
+
+    public String catalogVersionKey() {
+        return keyPrefix() + "catalog:version";
+    }
+
+
+    public String categoriesKey() {
+        return keyPrefix() + "categories";
+    }
+
+
+    public String categoryKey(String category) {
+        return keyPrefix() + "category:" + category;
+    }
+
+
+    private String keyPrefix() {
+        return "product:v" + properties.getKeyVersion() + ":";
+    }
+
+
+    // product:v1:id:1 -> product:v1:stale:id:1
+    private String staleKey(String key) {
+        return keyPrefix() + "stale:" + key.substring(keyPrefix().length());
+    }
+
+
+    private Object get(String key) {
+        // Check the near cache first, if present then no call to Redis is needed
+        Object value = productNearCache.getIfPresent(key);
+        if(value != null) {
+            nearHits.increment();
+            return value;
+        }
+        nearMisses.increment();
+        // Else check Redis and keep the value in the near cache for the next read
+        try {
+            value = redisTemplate.opsForValue().get(key);
+        } catch (SerializationException ex) {
+            // Value was written by an incompatible version of the class, treat it as a miss so that it is fetched and written again
+            value = null;
+        }
+        if(value == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        productNearCache.put(key, value);
+        return value;
+    }
+
+
+    // Read straight from Redis, the near cache only holds fresh entries
+    private Object getStale(String key) {
+        try {
+            return redisTemplate.opsForValue().get(staleKey(key));
+        } catch (SerializationException ex) {
+            return null;
+        }
+    }
+
+
+    // A changed product changes the list of all products, so its version is increased along with the write
+    private void put(String key, Object value, Duration ttl, boolean catalogChange) {
+        // SET with expiry, so that the entry is removed from Redis once its time to live is over
+        // The stale copy is written in the same pipeline, so both cost a single round trip
+        boolean written = bestEffort("write of " + key, () -> redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, Object> stringOperations = (RedisOperations<String, Object>) operations;
+                stringOperations.opsForValue().set(key, value, ttl);
+                stringOperations.opsForValue().set(staleKey(key), value, properties.getStaleTtl());
+                if(catalogChange) {
+                    stringOperations.opsForValue().increment(catalogVersionKey(), versionStep());
+                }
+                return null;
+            }
+        }));
+        if(!written) {
+            // The near cache might hold an older value, it is dropped so the next read goes to Redis or the Fake Store API
+            productNearCache.invalidate(key);
+            return;
+        }
+        productNearCache.put(key, value);
+        responseBodies.bodyOf(value);
+        // Other nodes might hold an older value of this entry in their near cache
+        publishInvalidation(key);
+    }
+
+
+    private void evict(String key) {
+        bestEffort("eviction of " + key, () -> redisTemplate.delete(key));
+        productNearCache.invalidate(key);
+        publishInvalidation(key);
+    }
+
+
+    // Called by the listener container for every message on the invalidation channel
+    public void onInvalidationMessage(byte[] body) {
+        String message = new String(body, StandardCharsets.UTF_8);
+        int separator = message.indexOf(MESSAGE_SEPARATOR);
+        if(separator < 0) {
+            return;
+        }
+        // Skip the messages sent by this node, its near cache is already up to date
+        if(NODE_ID.equals(message.substring(0, separator))) {
+            return;
+        }
+        productNearCache.invalidateAll(Arrays.asList(message.substring(separator + 1).split(KEY_SEPARATOR)));
+    }
+
+
+    private void publishInvalidation(String keys) {
+        bestEffort("invalidation message", () -> stringRedisTemplate.convertAndSend(properties.getInvalidationChannel(), NODE_ID + MESSAGE_SEPARATOR + keys));
+    }
+
+
+    // Redis only holds copies of the Fake Store API data, so a write, eviction or message it doesn't take is logged and
+    // counted instead of failing the request that triggered it, returns whether Redis took it
+    private boolean bestEffort(String operation, Runnable write) {
+        try {
+            write.run();
+            return true;
+        }
+        // PoolException is thrown when no pooled connection is free within max-wait
+        catch (DataAccessException | PoolException ex) {
+            writeErrors.increment();
+            log.warn("Cache {} skipped: {}", operation, ex.toString());
+            return false;
+        }
+    }
+}
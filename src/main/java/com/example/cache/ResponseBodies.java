@@ -0,0 +1,105 @@
+package com.example.cache;
+
+import com.example.configs.ProductCacheProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+
+// JSON of the cached values as bytes, along with their gzip compressed copy and their ETag
+// The body is kept per value instance: the near cache hands out the same instance until the entry changes or expires,
+// so a value is serialized, compressed and hashed once when it is cached instead of on every request
+// Instances are held weakly, the body goes away with the value once the near cache drops it
+
+// The ETag is the MD5 of the JSON, the same hash ShallowEtagHeaderFilter would take of the response body
+
+@Component
+public class ResponseBodies {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ProductCacheProperties properties;
+
+    // Weak keys are compared by identity, two equal lists from two Redis reads get their own entry
+    private final Cache<Object, SerializedBody> bodies = Caffeine.newBuilder().weakKeys().build();
+
+
+    public SerializedBody bodyOf(Object value) {
+        return bodies.get(value, this::serialize);
+    }
+
+
+    public String tagOf(Object value) {
+        return bodyOf(value).getEtag();
+    }
+
+
+    // Tag of a response derived from a cached value i.e. a page of the catalog, the variant tells the responses apart
+    // The response is computed from the value and the variant only, so hashing both gives its tag without serializing it
+    public String tagOf(Object value, String variant) {
+        return derivedTag(tagOf(value), variant);
+    }
+
+
+    // Tag of a response known by the tag of its source i.e. a catalog version, and its variant
+    public String derivedTag(String sourceTag, String variant) {
+        return "0" + DigestUtils.md5DigestAsHex((sourceTag + "|" + variant).getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private SerializedBody serialize(Object value) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Could not serialize " + value.getClass().getSimpleName() + " for its response body", ex);
+        }
+        ProductCacheProperties.ResponseBodies settings = properties.getResponseBodies();
+        // Small bodies don't gain from compression, and the bytes are only written when the mode is enabled
+        byte[] gzip = settings.isEnabled() && json.length >= settings.getGzipMinSize() ? gzip(json) : null;
+        return new SerializedBody(json, gzip, "0" + DigestUtils.md5DigestAsHex(json));
+    }
+
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+
+    // Never changed after it is built, the arrays are written to the responses as they are
+    @Getter
+    public static class SerializedBody {
+
+        private final byte[] json;
+
+        // null when the body is too small to be worth compressing
+        private final byte[] gzip;
+
+        private final String etag;
+
+
+        SerializedBody(byte[] json, byte[] gzip, String etag) {
+            this.json = json;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+    }
+}
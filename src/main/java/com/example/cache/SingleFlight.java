@@ -0,0 +1,149 @@
+package com.example.cache;
+
+import com.example.configs.ProductCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+
+// Request coalescing for cache misses: when many requests miss the cache for the same key at the same time,
+// only the first one (the leader) calls the loader i.e. the Fake Store API and the others wait for and share its result
+// With distributedLockEnabled the leaders of all the nodes also take a short Redis lock, so only one node calls the Fake Store API
+// and the other nodes wait until the value shows up in Redis
+
+@Component
+public class SingleFlight {
+
+    // Deletes the lock only if it is still held by this caller, else the lock of another node could be deleted after ours expired
+    private static final RedisScript<Long> RELEASE_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    // Loader of the value for a key, can throw a checked exception i.e. ProductNotFoundException which is passed on to every caller
+    @FunctionalInterface
+    public interface Loader<T, E extends Exception> {
+        T load() throws E;
+    }
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ProductCacheProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter loads;
+    private Counter collapsedLocal;
+    private Counter collapsedRemote;
+
+
+    @PostConstruct
+    public void registerMetrics() {
+        // product.singleflight.loads counts the calls made to the loader, collapsed counts the calls saved by waiting for another caller
+        loads = meterRegistry.counter("product.singleflight.loads");
+        collapsedLocal = meterRegistry.counter("product.singleflight.collapsed", "scope", "local");
+        collapsedRemote = meterRegistry.counter("product.singleflight.collapsed", "scope", "remote");
+    }
+
+
+    // Returns the cached value if cacheLookup finds it, else the value of the loader which is called once for all the concurrent callers of the key
+    // The loader is expected to write the value to the cache, so that the callers coming after it finds the value with cacheLookup
+    public <T, E extends Exception> T execute(String key, Supplier<T> cacheLookup, Loader<T, E> loader) throws E {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if(existing != null) {
+            // Another caller of this node is already loading the key, wait for its result
+            collapsedLocal.increment();
+            return await(existing);
+        }
+        try {
+            // The previous leader might have written the value just after our cache lookup missed
+            T value = cacheLookup.get();
+            if(value == null) {
+                value = properties.getSingleFlight().isDistributedLockEnabled() ? loadWithLock(key, cacheLookup, loader) : load(loader);
+            }
+            future.complete(value);
+            return value;
+        } catch (Throwable ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+
+    private <T, E extends Exception> T loadWithLock(String key, Supplier<T> cacheLookup, Loader<T, E> loader) throws E {
+        ProductCacheProperties.SingleFlight settings = properties.getSingleFlight();
+        String lockKey = key + ":lock";
+        String token = UUID.randomUUID().toString();
+        long deadline = System.nanoTime() + settings.getLockTtl().toNanos();
+        while(!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, token, settings.getLockTtl()))) {
+            // Another node is loading the key, wait until it writes the value to Redis or its lock expires
+            T value = cacheLookup.get();
+            if(value != null) {
+                collapsedRemote.increment();
+                return value;
+            }
+            if(System.nanoTime() > deadline) {
+                // The other node is too slow or died without releasing the lock, load the value ourselves
+                return load(loader);
+            }
+            sleep(settings.getLockPollInterval().toMillis());
+        }
+        try {
+            return load(loader);
+        } finally {
+            stringRedisTemplate.execute(RELEASE_LOCK, List.of(lockKey), token);
+        }
+    }
+
+
+    private <T, E extends Exception> T load(Loader<T, E> loader) throws E {
+        loads.increment();
+        return loader.load();
+    }
+
+
+    // Waits for the result of the leader and throws the same exception as the leader if it failed
+    @SuppressWarnings("unchecked")
+    private static <T, E extends Exception> T await(CompletableFuture<Object> future) throws E {
+        try {
+            return (T) future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the value to be loaded", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if(cause instanceof Error error) {
+                throw error;
+            }
+            // Only the checked exception of the loader can reach here
+            throw (E) cause;
+        }
+    }
+
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the Redis lock", ex);
+        }
+    }
+}
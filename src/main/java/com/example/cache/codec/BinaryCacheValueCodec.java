@@ -0,0 +1,158 @@
+package com.example.cache.codec;
+
+import com.example.models.Category;
+import com.example.models.Product;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Schema based binary codec, the fields of Product and Category are written one after the other in a fixed order
+// without any field names, numbers are written as variable length integers and strings as length + UTF-8 bytes
+//   Product  = varlong id, string title, string description, double price, string image, bool hasCategory, [Category]
+//   Category = varlong id, string description
+//   List     = varint size, elements
+//   string   = varint (length + 1) followed by UTF-8 bytes, 0 means null
+// The order must never change, a new field can only be appended and then needs a new key version (see ProductCacheProperties)
+
+public class BinaryCacheValueCodec implements CacheValueCodec {
+
+    @Override
+    public CacheValueFormat getFormat() {
+        return CacheValueFormat.BINARY;
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(CacheValueType type, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        switch (type) {
+            case PRODUCT -> writeProduct(out, (Product) value);
+            case PRODUCT_LIST -> {
+                List<Product> products = (List<Product>) value;
+                writeVarLong(out, products.size());
+                for(Product product : products) {
+                    writeProduct(out, product);
+                }
+            }
+            case STRING_LIST -> {
+                List<String> strings = (List<String>) value;
+                writeVarLong(out, strings.size());
+                for(String string : strings) {
+                    writeString(out, string);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+
+    @Override
+    public Object decode(CacheValueType type, byte[] bytes, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        switch (type) {
+            case PRODUCT:
+                return readProduct(in);
+            case PRODUCT_LIST: {
+                int size = (int) readVarLong(in);
+                List<Product> products = new ArrayList<>(size);
+                for(int i = 0; i < size; i++) {
+                    products.add(readProduct(in));
+                }
+                return products;
+            }
+            case STRING_LIST: {
+                int size = (int) readVarLong(in);
+                List<String> strings = new ArrayList<>(size);
+                for(int i = 0; i < size; i++) {
+                    strings.add(readString(in));
+                }
+                return strings;
+            }
+            default:
+                throw new IOException("Unsupported cache value type " + type);
+        }
+    }
+
+
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        writeVarLong(out, product.getId());
+        writeString(out, product.getTitle());
+        writeString(out, product.getDescription());
+        out.writeDouble(product.getPrice());
+        writeString(out, product.getImage());
+        Category category = product.getCategory();
+        out.writeBoolean(category != null);
+        if(category != null) {
+            writeVarLong(out, category.getId());
+            writeString(out, category.getDescription());
+        }
+    }
+
+
+    private static Product readProduct(DataInputStream in) throws IOException {
+        Product product = new Product();
+        product.setId(readVarLong(in));
+        product.setTitle(readString(in));
+        product.setDescription(readString(in));
+        product.setPrice(in.readDouble());
+        product.setImage(readString(in));
+        if(in.readBoolean()) {
+            Category category = new Category();
+            category.setId(readVarLong(in));
+            category.setDescription(readString(in));
+            product.setCategory(category);
+        }
+        return product;
+    }
+
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if(string == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, utf8.length + 1L);
+        out.write(utf8);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = (int) readVarLong(in);
+        if(length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+
+    // Zig-zag encoded variable length long, i.e. 1 byte for values from -64 to 63
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigZag = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.cache.codec;
+
+import java.io.IOException;
+
+
+// Encodes the values which have a schema (see CacheValueType) to bytes and back
+// The format and type bytes are written by CacheValueSerializer, the codec only writes and reads the payload
+
+public interface CacheValueCodec {
+
+    CacheValueFormat getFormat();
+
+    byte[] encode(CacheValueType type, Object value) throws IOException;
+
+    Object decode(CacheValueType type, byte[] bytes, int offset, int length) throws IOException;
+
+}
@@ -0,0 +1,22 @@
+package com.example.cache.codec;
+
+
+// Formats in which a value can be written to Redis
+// The id is the first byte of the stored value, Java serialization has no id as its stream always starts with 0xACED
+
+public enum CacheValueFormat {
+
+    JDK((byte) -1),
+    JSON((byte) 1),
+    BINARY((byte) 2);
+
+    private final byte id;
+
+    CacheValueFormat(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.cache.codec;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+// Value serializer of the RedisTemplate, replaces the default Java serialization which stores class descriptors with every value
+// Values are stored as [format byte][type byte][payload] where the payload is written by the configured CacheValueCodec
+// Reads pick the codec from the format byte, so values written in json and binary are always readable which allows switching formats without a flush
+// Values without a schema (see CacheValueType) and the jdk format are written with Java serialization, they are read only when readLegacy is on
+// The time spent in every encode and decode is recorded in product.cache.codec{operation,format} and the stored size in product.cache.codec.bytes
+
+public class CacheValueSerializer implements RedisSerializer<Object> {
+
+    // Every Java serialization stream starts with the magic number 0xACED
+    private static final byte JDK_STREAM_MAGIC = (byte) 0xAC;
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    private final Map<Byte, CacheValueCodec> codecs;
+
+    // Codec used to write values, null means Java serialization
+    private final CacheValueCodec writeCodec;
+
+    private final boolean readLegacy;
+
+    // Timers and size summaries by format, index 0 is Java serialization and the others are the id of the format
+    private final Timer[] encodeTimers = new Timer[3];
+    private final Timer[] decodeTimers = new Timer[3];
+    private final DistributionSummary[] encodedBytes = new DistributionSummary[3];
+
+
+    public CacheValueSerializer(CacheValueFormat writeFormat, boolean readLegacy) {
+        // Meters of a composite registry without any registry are no-ops
+        this(writeFormat, readLegacy, new CompositeMeterRegistry());
+    }
+
+
+    public CacheValueSerializer(CacheValueFormat writeFormat, boolean readLegacy, MeterRegistry meterRegistry) {
+        CacheValueCodec json = new JsonCacheValueCodec();
+        CacheValueCodec binary = new BinaryCacheValueCodec();
+        this.codecs = Map.of(json.getFormat().getId(), json, binary.getFormat().getId(), binary);
+        this.writeCodec = codecs.get(writeFormat.getId());
+        // Values written with Java serialization must stay readable when it is still used to write
+        this.readLegacy = readLegacy || writeCodec == null;
+        for(CacheValueFormat format : CacheValueFormat.values()) {
+            String name = format.name().toLowerCase();
+            int index = index(format.getId());
+            encodeTimers[index] = Timer.builder("product.cache.codec").tag("operation", "encode").tag("format", name).register(meterRegistry);
+            decodeTimers[index] = Timer.builder("product.cache.codec").tag("operation", "decode").tag("format", name).register(meterRegistry);
+            encodedBytes[index] = DistributionSummary.builder("product.cache.codec.bytes").baseUnit("bytes").tag("format", name).register(meterRegistry);
+        }
+    }
+
+
+    private static int index(byte formatId) {
+        return formatId < 0 ? 0 : formatId;
+    }
+
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        long start = System.nanoTime();
+        byte[] bytes = encode(value);
+        if(bytes.length > 0) {
+            int index = index(bytes[0] == JDK_STREAM_MAGIC ? CacheValueFormat.JDK.getId() : bytes[0]);
+            encodeTimers[index].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            encodedBytes[index].record(bytes.length);
+        }
+        return bytes;
+    }
+
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if(bytes == null || bytes.length == 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Object value = decode(bytes);
+        int index = index(bytes[0] == JDK_STREAM_MAGIC ? CacheValueFormat.JDK.getId() : bytes[0]);
+        decodeTimers[index].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return value;
+    }
+
+
+    private byte[] encode(Object value) {
+        if(value == null) {
+            return new byte[0];
+        }
+        CacheValueType type = CacheValueType.of(value);
+        if(writeCodec == null || type == null) {
+            return jdkSerializer.serialize(value);
+        }
+        try {
+            byte[] payload = writeCodec.encode(type, value);
+            byte[] bytes = new byte[payload.length + 2];
+            bytes[0] = writeCodec.getFormat().getId();
+            bytes[1] = type.getId();
+            System.arraycopy(payload, 0, bytes, 2, payload.length);
+            return bytes;
+        } catch (IOException ex) {
+            throw new SerializationException("Could not write " + type + " to the cache", ex);
+        }
+    }
+
+
+    private Object decode(byte[] bytes) {
+        if(bytes[0] == JDK_STREAM_MAGIC) {
+            if(!readLegacy) {
+                throw new SerializationException("Value is written with Java serialization and reading legacy values is disabled");
+            }
+            return jdkSerializer.deserialize(bytes);
+        }
+        CacheValueCodec codec = codecs.get(bytes[0]);
+        if(codec == null || bytes.length < 2) {
+            throw new SerializationException("Unknown cache value format " + bytes[0]);
+        }
+        try {
+            return codec.decode(CacheValueType.fromId(bytes[1]), bytes, 2, bytes.length - 2);
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new SerializationException("Could not read cache value", ex);
+        }
+    }
+}
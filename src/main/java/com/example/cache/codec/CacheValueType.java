@@ -0,0 +1,54 @@
+package com.example.cache.codec;
+
+import com.example.models.Product;
+import java.util.List;
+
+
+// Types of values which have a schema in the cache codecs, stored as the second byte of the value so that it can be decoded without class names
+// Any other type is written with Java serialization
+
+public enum CacheValueType {
+
+    PRODUCT((byte) 1),
+    PRODUCT_LIST((byte) 2),
+    STRING_LIST((byte) 3);
+
+    private final byte id;
+
+    CacheValueType(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+
+    public static CacheValueType fromId(byte id) {
+        for(CacheValueType type : values()) {
+            if(type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cache value type " + id);
+    }
+
+
+    // Returns the type of the given value or null if it has no schema
+    public static CacheValueType of(Object value) {
+        if(value instanceof Product) {
+            return PRODUCT;
+        }
+        if(!(value instanceof List<?> list)) {
+            return null;
+        }
+        // An empty list is decoded as an empty list of products, which is the same for any element type
+        if(list.isEmpty() || list.stream().allMatch(Product.class::isInstance)) {
+            return PRODUCT_LIST;
+        }
+        if(list.stream().allMatch(String.class::isInstance)) {
+            return STRING_LIST;
+        }
+        return null;
+    }
+}
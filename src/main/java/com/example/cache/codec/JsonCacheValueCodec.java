@@ -0,0 +1,47 @@
+package com.example.cache.codec;
+
+import com.example.models.Product;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.util.List;
+
+
+// Compact JSON codec, null fields are left out and no class names are written as the type is stored in the type byte
+// Unknown fields are ignored so that a field added to Product doesn't break reading the values written before
+
+public class JsonCacheValueCodec implements CacheValueCodec {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final ObjectReader productReader = objectMapper.readerFor(Product.class);
+    private final ObjectReader productListReader = objectMapper.readerFor(new TypeReference<List<Product>>() {});
+    private final ObjectReader stringListReader = objectMapper.readerFor(new TypeReference<List<String>>() {});
+
+
+    @Override
+    public CacheValueFormat getFormat() {
+        return CacheValueFormat.JSON;
+    }
+
+
+    @Override
+    public byte[] encode(CacheValueType type, Object value) throws IOException {
+        return objectMapper.writeValueAsBytes(value);
+    }
+
+
+    @Override
+    public Object decode(CacheValueType type, byte[] bytes, int offset, int length) throws IOException {
+        return switch (type) {
+            case PRODUCT -> productReader.readValue(bytes, offset, length);
+            case PRODUCT_LIST -> productListReader.readValue(bytes, offset, length);
+            case STRING_LIST -> stringListReader.readValue(bytes, offset, length);
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.catalog;
+
+import com.example.models.Product;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import java.util.List;
+
+
+// One page of the products matching a CatalogQuery along with the number of all the matching products
+
+@Getter
+@AllArgsConstructor
+public class CatalogPage {
+
+    private final List<Product> products;
+
+    private final int total;
+
+    // The list of all products the page was taken from, null for a page read straight from the id index, see ProductCache
+    private final List<Product> catalog;
+
+    // The version of the catalog the page was taken at, null when the list it was taken from has no version
+    // A page is known by its catalog version or else by the ETag of its catalog, along with its query and total, see ProductController
+    private final Long catalogVersion;
+
+}
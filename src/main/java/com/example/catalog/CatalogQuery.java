@@ -0,0 +1,39 @@
+package com.example.catalog;
+
+import lombok.Getter;
+import lombok.Setter;
+
+
+// Query parameters of GET /products i.e. /products?category=jewelery&minPrice=10&maxPrice=100&sort=-price&offset=0&limit=20
+// All of them are optional, without any of them all the products are returned as before
+
+@Getter
+@Setter
+public class CatalogQuery {
+
+    // Only products of this category
+    private String category;
+
+    // Only products with minPrice <= price <= maxPrice
+    private Double minPrice;
+    private Double maxPrice;
+
+    // id, -id, price or -price where - means descending, products are sorted by id when not given
+    private String sort;
+
+    // Number of matching products to skip and maximum number of products to return
+    private int offset = 0;
+    private Integer limit;
+
+
+    public boolean isEmpty() {
+        return category == null && minPrice == null && maxPrice == null && sort == null && offset == 0 && limit == null;
+    }
+
+
+    // Same key means same page of the same catalog i.e. category=jewelery|minPrice=10.0|maxPrice=null|sort=-price|offset=0|limit=20
+    public String key() {
+        return "category=" + category + "|minPrice=" + minPrice + "|maxPrice=" + maxPrice + "|sort=" + sort + "|offset=" + offset + "|limit=" + limit;
+    }
+
+}
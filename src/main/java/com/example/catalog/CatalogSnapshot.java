@@ -0,0 +1,208 @@
+package com.example.catalog;
+
+import com.example.models.Product;
+import java.util.*;
+
+
+// Read only view of the list of all products with indexes built once, so that lookups don't scan the whole catalog
+// A snapshot is never changed after it is built, a changed catalog gives a new snapshot
+
+// Products are referred to by their position in the products array, the indexes are arrays of positions
+//   idOrder          -> positions sorted by id, ids holds the ids in the same order for a binary search by id
+//   priceOrder       -> positions sorted by price, prices holds the prices in the same order for a binary search by price range
+//   categoryIdOrder  -> category -> positions of the products of the category sorted by id
+// so a query only touches the products of the page it returns, plus the ones it skips with offset
+
+public class CatalogSnapshot {
+
+    // The cached list this snapshot was built from and the version it was read at, used to tell whether the catalog has changed since
+    // A null version means the list has no version, only that very list is known to hold the same products
+    private final List<Product> source;
+    private final Long version;
+
+    private final Product[] products;
+
+    private final int[] idOrder;
+    private final long[] ids;
+
+    private final int[] priceOrder;
+    private final double[] prices;
+
+    private final Map<String, int[]> categoryIdOrder;
+
+    // Products of each category sorted by id i.e. category -> products
+    private final Map<String, List<Product>> productsByCategory;
+
+
+    public CatalogSnapshot(List<Product> source) {
+        this(source, null);
+    }
+
+
+    public CatalogSnapshot(List<Product> source, Long version) {
+        this.source = source;
+        this.version = version;
+        this.products = source.toArray(new Product[0]);
+
+        this.idOrder = positionsSortedBy(Comparator.comparingLong(position -> products[position].getId()));
+        this.ids = new long[products.length];
+        for(int i = 0; i < idOrder.length; i++) {
+            ids[i] = products[idOrder[i]].getId();
+        }
+
+        this.priceOrder = positionsSortedBy(Comparator.comparingDouble(position -> products[position].getPrice()));
+        this.prices = new double[products.length];
+        for(int i = 0; i < priceOrder.length; i++) {
+            prices[i] = products[priceOrder[i]].getPrice();
+        }
+
+        // Walk the products in id order so that the positions of each category are sorted by id as well
+        Map<String, List<Integer>> byCategory = new LinkedHashMap<>();
+        for(int position : idOrder) {
+            byCategory.computeIfAbsent(categoryOf(products[position]), category -> new ArrayList<>()).add(position);
+        }
+        Map<String, int[]> positionsByCategory = new HashMap<>();
+        Map<String, List<Product>> listsByCategory = new HashMap<>();
+        byCategory.forEach((category, positions) -> {
+            positionsByCategory.put(category, positions.stream().mapToInt(Integer::intValue).toArray());
+            listsByCategory.put(category, positions.stream().map(position -> products[position]).toList());
+        });
+        this.categoryIdOrder = positionsByCategory;
+        this.productsByCategory = listsByCategory;
+    }
+
+
+    // Same list, or a list read at the same version of the catalog i.e. a new read of the same catalog from Redis
+    public boolean isBuiltFrom(List<Product> products, Long version) {
+        return source == products || (version != null && version.equals(this.version));
+    }
+
+
+    public int size() {
+        return products.length;
+    }
+
+
+    // Returns the product with the given id, null if there is no such product
+    public Product getProductById(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? null : products[idOrder[index]];
+    }
+
+
+    // Returns the products of the given category sorted by id, an empty list if the category is unknown
+    public List<Product> getProductsByCategory(String category) {
+        return productsByCategory.getOrDefault(category, List.of());
+    }
+
+
+    // Returns the page of the products matching the query, throws IllegalArgumentException for an invalid query
+    public CatalogPage query(CatalogQuery query) {
+        if(query.getOffset() < 0) {
+            throw new IllegalArgumentException("offset must not be negative");
+        }
+        if(query.getLimit() != null && query.getLimit() < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        double minPrice = query.getMinPrice() == null ? Double.NEGATIVE_INFINITY : query.getMinPrice();
+        double maxPrice = query.getMaxPrice() == null ? Double.POSITIVE_INFINITY : query.getMaxPrice();
+        String sort = query.getSort() == null ? "id" : query.getSort();
+        boolean descending = sort.startsWith("-");
+        String field = descending ? sort.substring(1) : sort;
+
+        // Pick the index to walk: the price index narrowed to the price range by binary search, or the id index of the whole catalog or of the category
+        int[] order;
+        int from;
+        int to;
+        boolean checkPrice;
+        switch(field) {
+            case "price" -> {
+                order = priceOrder;
+                from = lowerBound(prices, minPrice);
+                to = Math.max(from, upperBound(prices, maxPrice));
+                checkPrice = false;
+            }
+            case "id" -> {
+                order = query.getCategory() == null ? idOrder : categoryIdOrder.getOrDefault(query.getCategory(), new int[0]);
+                from = 0;
+                to = order.length;
+                checkPrice = query.getMinPrice() != null || query.getMaxPrice() != null;
+            }
+            default -> throw new IllegalArgumentException("Unknown sort " + sort + ", use id, -id, price or -price");
+        }
+        // The id index of a category holds only products of that category, every other index needs the category checked
+        boolean checkCategory = query.getCategory() != null && order == priceOrder;
+
+        // The total is known from the range alone when nothing else has to be checked, else count the matching products
+        int limit = query.getLimit() == null ? Integer.MAX_VALUE : query.getLimit();
+        int total = 0;
+        List<Product> page = new ArrayList<>(Math.min(limit, to - from));
+        for(int i = 0; i < to - from; i++) {
+            Product product = products[order[descending ? to - 1 - i : from + i]];
+            if(checkCategory && !Objects.equals(query.getCategory(), categoryOf(product))) {
+                continue;
+            }
+            if(checkPrice && (product.getPrice() < minPrice || product.getPrice() > maxPrice)) {
+                continue;
+            }
+            if(total >= query.getOffset() && page.size() < limit) {
+                page.add(product);
+            }
+            total++;
+            if(page.size() == limit && !checkCategory && !checkPrice) {
+                // Nothing left to filter, the number of matching products is the size of the range
+                total = to - from;
+                break;
+            }
+        }
+        return new CatalogPage(page, total, source, version);
+    }
+
+
+    private int[] positionsSortedBy(Comparator<Integer> comparator) {
+        Integer[] positions = new Integer[products.length];
+        for(int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        // Stable sort, products with the same price keep the order of the catalog
+        Arrays.sort(positions, comparator);
+        return Arrays.stream(positions).mapToInt(Integer::intValue).toArray();
+    }
+
+
+    // Index of the first price >= minPrice
+    private static int lowerBound(double[] prices, double minPrice) {
+        int low = 0;
+        int high = prices.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(prices[middle] < minPrice) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    // Index after the last price <= maxPrice
+    private static int upperBound(double[] prices, double maxPrice) {
+        int low = 0;
+        int high = prices.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(prices[middle] <= maxPrice) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private static String categoryOf(Product product) {
+        return product.getCategory() == null ? null : product.getCategory().getDescription();
+    }
+}
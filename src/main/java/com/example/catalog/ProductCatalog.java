@@ -0,0 +1,33 @@
+package com.example.catalog;
+
+import com.example.cache.ProductCache;
+import com.example.models.Product;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import java.util.List;
+
+
+// Keeps the CatalogSnapshot of the last cached list of all products
+// The snapshot is keyed by the version the list was read from Redis at, see ProductCache, so the indexes are built once per catalog change
+// even when every request gets a list of its own i.e. with the near cache disabled or after the list is read again
+
+@Component
+public class ProductCatalog {
+
+    @Autowired
+    private ProductCache productCache;
+
+    private volatile CatalogSnapshot snapshot;
+
+
+    public CatalogSnapshot snapshotOf(List<Product> products) {
+        Long version = productCache.catalogVersionOf(products);
+        CatalogSnapshot current = snapshot;
+        if(current == null || !current.isBuiltFrom(products, version)) {
+            // Two threads might build the same snapshot at the same time, both are equal so the last one simply wins
+            current = new CatalogSnapshot(products, version);
+            snapshot = current;
+        }
+        return current;
+    }
+}
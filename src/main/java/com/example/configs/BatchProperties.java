@@ -0,0 +1,21 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+
+// Settings of the batch lookup GET /products?ids=..., bound from the product.batch.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.batch")
+public class BatchProperties {
+
+    // Maximum number of ids in one request, larger requests are rejected with BAD_REQUEST
+    private int maxIds = 100;
+
+    // Maximum number of calls made to the Fake Store API at the same time for the ids missing from the cache
+    private int parallelism = 8;
+
+}
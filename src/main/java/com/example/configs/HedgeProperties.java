@@ -0,0 +1,28 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the hedged GET calls to the upstreams, bound from the upstream.hedge.* keys in application.properties
+// A GET call which takes longer than the observed percentile of its endpoint is sent a second time and the first response wins
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "upstream.hedge")
+public class HedgeProperties {
+
+    private boolean enabled = false;
+
+    // Latency percentile of the endpoint after which the second call is sent
+    private double percentile = 0.95;
+
+    // The second call is never sent earlier than this
+    private Duration minDelay = Duration.ofMillis(50);
+
+    // No hedging until the endpoint has this many calls, the percentile of fewer calls is not meaningful
+    private long minSamples = 100;
+
+}
@@ -0,0 +1,41 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the pooled HTTP client used by RestTemplate for the calls to Fake Store API and User Service,
+// bound from the upstream.http.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "upstream.http")
+public class HttpClientProperties {
+
+    // Maximum number of open connections over all the hosts
+    private int maxTotalConnections = 200;
+
+    // Maximum number of open connections to a single host i.e. fakestoreapi.com
+    private int maxConnectionsPerRoute = 50;
+
+    // Time to establish the TCP (and TLS) connection
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    // Time to wait for the response after the request is sent (read timeout)
+    private Duration responseTimeout = Duration.ofSeconds(5);
+
+    // Time to wait for a free connection from the pool when all the connections are in use
+    private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+    // Connections not used for this long are closed by a background thread
+    private Duration idleTimeout = Duration.ofSeconds(30);
+
+    // Connections are closed after this time even when in use, so that DNS changes of the upstream are picked up
+    private Duration timeToLive = Duration.ofMinutes(5);
+
+    // A pooled connection which was idle for longer than this is checked before it is reused
+    private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+}
@@ -0,0 +1,26 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the local JWT verification, bound from the product.auth.jwt.* keys in application.properties
+// The issuer and the JWK set URL are the standard spring.security.oauth2.resourceserver.jwt.* keys
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.auth.jwt")
+public class JwtProperties {
+
+    // How often the JWK set is fetched again in the background, so that rotated keys are known before tokens signed with them arrive
+    private Duration jwkSetRefreshInterval = Duration.ofMinutes(5);
+
+    // Minimum time between two fetches triggered by a token signed with an unknown key, protects the Authorization Server from forged tokens
+    private Duration jwkSetMinRefreshInterval = Duration.ofSeconds(30);
+
+    // Maximum number of decoded tokens kept in memory, each is kept until the token expires
+    private long decodedTokenCacheMaximumSize = 10_000;
+
+}
@@ -0,0 +1,28 @@
+package com.example.configs;
+
+import com.example.metrics.TemplatedClientRequestObservationConvention;
+import com.example.metrics.TemplatedWebClientRequestObservationConvention;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+
+// Metrics are exported at /actuator/prometheus, see the management.* keys in application.properties
+// Spring Boot already times the controller endpoints (http.server.requests), the RestTemplate and WebClient calls (http.client.requests)
+// and the Redis commands (lettuce.command.completion), the beans below only keep the uri tag of the upstream calls low in cardinality
+
+@Configuration
+public class MetricsConfig {
+
+    // Picked up by the RestTemplateBuilder of Spring Boot, so every RestTemplate built from it uses it
+    @Bean
+    public TemplatedClientRequestObservationConvention templatedClientRequestObservationConvention() {
+        return new TemplatedClientRequestObservationConvention();
+    }
+
+
+    // Picked up by the WebClient.Builder of Spring Boot
+    @Bean
+    public TemplatedWebClientRequestObservationConvention templatedWebClientRequestObservationConvention() {
+        return new TemplatedWebClientRequestObservationConvention();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the bulk mutations POST /products/bulk, bound from the product.mutations.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.mutations")
+public class MutationProperties {
+
+    // Maximum number of mutations in one request, larger requests are rejected with BAD_REQUEST
+    private int maxItems = 500;
+
+    // Mutations accepted but not yet applied, a mutation arriving while the queue is full is rejected
+    private int queueCapacity = 10_000;
+
+    // Mutations are taken from the queue in batches of at most batchSize, waiting up to linger for a batch to fill up
+    private int batchSize = 50;
+    private Duration linger = Duration.ofMillis(20);
+
+    // Maximum number of calls made to the Fake Store API at the same time
+    private int parallelism = 8;
+
+    // How long the status of a mutation is kept in Redis, a key sent again within this time is not applied twice
+    private Duration idempotencyTtl = Duration.ofHours(24);
+
+    // On shutdown the queued mutations are still applied for up to this long
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+}
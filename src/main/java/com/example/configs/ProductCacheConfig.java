@@ -0,0 +1,41 @@
+package com.example.configs;
+
+import com.example.cache.ProductCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+
+@Configuration
+@EnableScheduling   // Provides the TaskScheduler used by CatalogRefresher
+@EnableConfigurationProperties({ProductCacheProperties.class, BatchProperties.class, WarmUpProperties.class, MutationProperties.class})
+public class ProductCacheConfig {
+
+    // In-process near cache which sits in front of Redis, bounded by size and evicted after a fixed time
+    // so that a node never serves an entry for longer than expireAfterWrite even if an invalidation message is lost
+    @Bean
+    public Cache<String, Object> productNearCache(ProductCacheProperties properties) {
+        ProductCacheProperties.NearCache nearCache = properties.getNearCache();
+        // When near cache is disabled keep a zero sized cache so that every read goes to Redis
+        return Caffeine.newBuilder()
+                .maximumSize(nearCache.isEnabled() ? nearCache.getMaximumSize() : 0)
+                .expireAfterWrite(nearCache.getExpireAfterWrite())
+                .build();
+    }
+
+
+    // Listens on the invalidation channel so that a change made on any node removes the entry from the near cache of this node
+    @Bean
+    public RedisMessageListenerContainer productCacheListenerContainer(RedisConnectionFactory connectionFactory, ProductCache productCache, ProductCacheProperties properties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> productCache.onInvalidationMessage(message.getBody()), new ChannelTopic(properties.getInvalidationChannel()));
+        return container;
+    }
+}
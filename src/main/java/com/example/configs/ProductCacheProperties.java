@@ -0,0 +1,141 @@
+package com.example.configs;
+
+import com.example.cache.codec.CacheValueFormat;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings for the product cache, bound from the product.cache.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.cache")
+public class ProductCacheProperties {
+
+    // Version of the key namespace i.e. keys are product:v1:..., bump it after changing the Product class
+    // so that the entries written with the old layout are ignored and left to expire instead of flushing Redis
+    private int keyVersion = 1;
+
+    // Time to live of a single product entry in Redis
+    private Duration productTtl = Duration.ofMinutes(10);
+
+    // Time to live of the list of all products in Redis
+    private Duration catalogTtl = Duration.ofMinutes(5);
+
+    // Time to live of the list of categories in Redis, categories almost never change
+    private Duration categoriesTtl = Duration.ofHours(1);
+
+    // Time to live of the products of a category in Redis, only used while the list of all products is not cached
+    private Duration categoryTtl = Duration.ofMinutes(5);
+
+    // Time to live of the stale copy of every entry, served only while the Fake Store API can't be called
+    private Duration staleTtl = Duration.ofHours(24);
+
+    // Redis pub/sub channel used to tell the other nodes to drop their in-process copy of a changed entry
+    private String invalidationChannel = "product-cache-invalidation";
+
+    private NearCache nearCache = new NearCache();
+
+    private Codec codec = new Codec();
+
+    private SingleFlight singleFlight = new SingleFlight();
+
+    private Refresh refresh = new Refresh();
+
+    private ResponseBodies responseBodies = new ResponseBodies();
+
+
+    // In-process (L1) cache kept in front of Redis (L2)
+    @Getter
+    @Setter
+    public static class NearCache {
+
+        private boolean enabled = true;
+
+        // Maximum number of entries kept in the heap, the least used entries are evicted first
+        private long maximumSize = 10_000;
+
+        // How long an entry lives in the heap before it is read again from Redis
+        private Duration expireAfterWrite = Duration.ofSeconds(30);
+
+    }
+
+
+    // Format used to write the values to Redis, see CacheValueSerializer
+    @Getter
+    @Setter
+    public static class Codec {
+
+        // binary, json or jdk (Java serialization as before, only for rollback)
+        private CacheValueFormat format = CacheValueFormat.BINARY;
+
+        // Migration mode, also read the values which were written with Java serialization
+        // Values written in json or binary are always readable whichever format is used to write
+        private boolean readLegacy = true;
+
+    }
+
+
+    // Deduplication of concurrent cache misses for the same key, see SingleFlight
+    @Getter
+    @Setter
+    public static class SingleFlight {
+
+        // Also deduplicate across nodes with a short lived Redis lock, only the node holding the lock calls the Fake Store API
+        private boolean distributedLockEnabled = false;
+
+        // Lock expires after this time even if the node holding it dies, the other nodes then call the Fake Store API themselves
+        private Duration lockTtl = Duration.ofSeconds(2);
+
+        // How often a node waiting for the lock checks whether the value has been written to Redis
+        private Duration lockPollInterval = Duration.ofMillis(50);
+
+    }
+
+
+
+    // Background reload of the list of all products and of the most requested products before they expire, see CatalogRefresher
+    @Getter
+    @Setter
+    public static class Refresh {
+
+        private boolean enabled = true;
+
+        // Time between two refreshes, shorter than catalogTtl so that the entries are replaced before they expire
+        private Duration interval = Duration.ofMinutes(4);
+
+        // Number of most requested product ids refreshed along with the list of all products
+        private int hotProductsLimit = 50;
+
+        // Number of product ids counted in memory between two refreshes, further ids are not counted until the counts are flushed
+        private int trackedProductsMaximumSize = 10_000;
+
+        // When the Fake Store API fails the stale entries are kept for at most this long after the last successful refresh
+        private Duration maxStaleness = Duration.ofHours(1);
+
+        // Wait after a failed refresh, doubled after every further failure up to maxBackoff
+        private Duration initialBackoff = Duration.ofSeconds(5);
+        private Duration maxBackoff = Duration.ofMinutes(5);
+
+        // Only the node holding the Redis leader lock refreshes, the lock is renewed every refresh and expires if the node dies
+        private Duration leaderLease = Duration.ofMinutes(10);
+
+    }
+
+
+    // JSON of the cached lists of products kept as bytes and written as they are, see ResponseBodies
+    @Getter
+    @Setter
+    public static class ResponseBodies {
+
+        // Write the kept bytes for GET /products and GET /products/categories/{category} instead of serializing the list on every request
+        private boolean enabled = true;
+
+        // Bodies of at least this many bytes are also kept gzip compressed, for the clients sending Accept-Encoding: gzip
+        private int gzipMinSize = 1024;
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.example.configs;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+
+// Lettuce settings Spring Boot has no property for, the pool and the timeouts are set with spring.data.redis.* in application.properties
+// Single commands of all the threads share one connection and are pipelined on it by Lettuce, the pool only serves
+// the commands which need a connection of their own i.e. executePipelined, which else opens and closes a new connection every time
+// Command latency is recorded by Spring Boot in lettuce.command.completion and lettuce.command.firstresponse{command}
+
+@Configuration
+public class RedisConnectionConfig {
+
+    @Bean
+    public LettuceClientConfigurationBuilderCustomizer lettuceClientOptionsCustomizer(RedisProperties redisProperties) {
+        SocketOptions.Builder socketOptions = SocketOptions.builder()
+                // Dead connections behind a firewall or load balancer are noticed instead of hanging until the command timeout
+                .keepAlive(true);
+        if(redisProperties.getConnectTimeout() != null) {
+            socketOptions.connectTimeout(redisProperties.getConnectTimeout());
+        }
+        return builder -> builder.clientOptions(ClientOptions.builder()
+                .socketOptions(socketOptions.build())
+                // spring.data.redis.timeout applies to every command, pipelined ones as well
+                .timeoutOptions(TimeoutOptions.enabled())
+                // While Redis is unreachable the commands fail at once instead of queueing up until it is back,
+                // so the requests don't all wait for the command timeout
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                .build());
+    }
+}
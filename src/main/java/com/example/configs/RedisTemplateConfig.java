@@ -1,9 +1,12 @@
 package com.example.configs;
 
+import com.example.cache.codec.CacheValueSerializer;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 
 @Configuration
@@ -11,12 +14,20 @@ public class RedisTemplateConfig {
 
     // To create object bean of RedisTemplate and store in Spring container and use the bean when required
     @Bean
-    public RedisTemplate<String, Object> getRedisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, Object> getRedisTemplate(RedisConnectionFactory connectionFactory, ProductCacheProperties properties, MeterRegistry meterRegistry) {
         // Create a generic RedisTemplate object which takes a key of type String and value of type Object
         // Any type of value can be stored in Redis
         RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
         // Set the connection factory for the RedisTemplate object, this is used to connect to Redis
         redisTemplate.setConnectionFactory(connectionFactory);
+        // Keys are stored as plain strings i.e. product:v1:id:1 instead of Java serialized bytes, so they are readable in redis-cli
+        redisTemplate.setKeySerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        // Values are stored in the compact format configured by product.cache.codec.format instead of Java serialization
+        // Encode and decode times are recorded in product.cache.codec
+        CacheValueSerializer valueSerializer = new CacheValueSerializer(properties.getCodec().getFormat(), properties.getCodec().isReadLegacy(), meterRegistry);
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.setHashValueSerializer(valueSerializer);
         return redisTemplate;
     }
 }
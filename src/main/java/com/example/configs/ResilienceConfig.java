@@ -0,0 +1,63 @@
+package com.example.configs;
+
+import com.example.resilience.RetryingHedgingInterceptor;
+import com.example.resilience.UpstreamResilienceInterceptor;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import java.net.URI;
+import java.util.Map;
+
+
+// Circuit breakers and bulkheads of the upstreams, configured by the resilience4j.circuitbreaker.* and resilience4j.bulkhead.* keys
+// in application.properties under the instance names fakeStore and userService
+// and the retries and hedged calls of the idempotent GET calls, configured by the upstream.retry.* and upstream.hedge.* keys
+
+@Configuration
+@EnableConfigurationProperties({RetryProperties.class, HedgeProperties.class})
+public class ResilienceConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ResilienceConfig.class);
+
+    public static final String FAKE_STORE = "fakeStore";
+    public static final String USER_SERVICE = "userService";
+
+
+    @Bean
+    public UpstreamResilienceInterceptor upstreamResilienceInterceptor(CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry,
+                                                                       UpstreamProperties upstreamProperties, MeterRegistry meterRegistry) {
+        // Count and log every change of state i.e. upstream.circuitbreaker.transitions{name=fakeStore,from=CLOSED,to=OPEN}
+        // The current state itself is published by Resilience4j as resilience4j.circuitbreaker.state
+        for(String name : new String[]{FAKE_STORE, USER_SERVICE}) {
+            CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(name);
+            circuitBreaker.getEventPublisher().onStateTransition(event -> {
+                CircuitBreaker.StateTransition transition = event.getStateTransition();
+                meterRegistry.counter("upstream.circuitbreaker.transitions", "name", name,
+                        "from", transition.getFromState().name(), "to", transition.getToState().name()).increment();
+                log.warn("Circuit breaker {} changed from {} to {}", name, transition.getFromState(), transition.getToState());
+            });
+            bulkheadRegistry.bulkhead(name);
+        }
+        return new UpstreamResilienceInterceptor(circuitBreakerRegistry, bulkheadRegistry, Map.of(
+                URI.create(upstreamProperties.getFakeStoreBaseUrl()), FAKE_STORE,
+                URI.create(upstreamProperties.getUserServiceBaseUrl()), USER_SERVICE));
+    }
+
+
+    // Every call sent by the retries and hedges goes through the bulkhead and circuit breaker on its own
+    // The hedged calls run on the task executor of the application, i.e. on virtual threads when they are on
+    @Bean
+    public RetryingHedgingInterceptor retryingHedgingInterceptor(UpstreamResilienceInterceptor upstreamResilienceInterceptor, RetryProperties retryProperties,
+                                                                 HedgeProperties hedgeProperties, MeterRegistry meterRegistry,
+                                                                 @Qualifier("applicationTaskExecutor") AsyncTaskExecutor taskExecutor) {
+        return new RetryingHedgingInterceptor(upstreamResilienceInterceptor, retryProperties, hedgeProperties, meterRegistry, taskExecutor);
+    }
+}
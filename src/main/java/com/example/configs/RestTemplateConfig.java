@@ -1,17 +1,87 @@
 package com.example.configs;
 
+import com.example.resilience.CallCancellation;
+import com.example.resilience.RetryingHedgingInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import java.net.URI;
 
 
 @Configuration
+@EnableConfigurationProperties({HttpClientProperties.class, UpstreamProperties.class})
 public class RestTemplateConfig {
 
+    // Pool of keep-alive connections shared by all the calls, so a call reuses an open connection instead of paying the TCP and TLS setup again
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager(HttpClientProperties properties, MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxTotalConnections())
+                .setMaxConnPerRoute(properties.getMaxConnectionsPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(properties.getConnectTimeout()))
+                        .setSocketTimeout(Timeout.of(properties.getResponseTimeout()))
+                        .setTimeToLive(TimeValue.of(properties.getTimeToLive()))
+                        .setValidateAfterInactivity(TimeValue.of(properties.getValidateAfterInactivity()))
+                        .build())
+                .build();
+        // Pool utilization metrics i.e. httpcomponents.httpclient.pool.total.leased{httpclient=upstream}
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "upstream").bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient upstreamHttpClient(PoolingHttpClientConnectionManager upstreamConnectionManager, HttpClientProperties properties) {
+        return HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(properties.getConnectionRequestTimeout()))
+                        .setResponseTimeout(Timeout.of(properties.getResponseTimeout()))
+                        .build())
+                // Close the connections which are idle or past their time to live in the background, not when the next request needs one
+                .evictIdleConnections(TimeValue.of(properties.getIdleTimeout()))
+                .evictExpiredConnections()
+                .build();
+    }
+
+
     // To create object bean of RestTemplate and store in Spring container and use the bean when required
+    // The builder provided by Spring Boot is used so that the calls are observed (metrics) like the rest of the application
+    // GET calls are retried or hedged, see RetryingHedgingInterceptor which has to come last, and every call it sends to an upstream
+    // i.e. each retry and hedged call as well goes through the bulkhead and circuit breaker, see UpstreamResilienceInterceptor
+    // Every request registers its abort with CallCancellation, so whichever call of a hedged pair comes second can be aborted
     @Bean
-    public RestTemplate getRestTemplate() {
-        return new RestTemplateBuilder().build();
+    public RestTemplate getRestTemplate(RestTemplateBuilder restTemplateBuilder, CloseableHttpClient upstreamHttpClient,
+                                        RetryingHedgingInterceptor retryingHedgingInterceptor) {
+        return restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(upstreamHttpClient) {
+                    @Override
+                    protected ClassicHttpRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+                        ClassicHttpRequest request = super.createHttpUriRequest(httpMethod, uri);
+                        if(request instanceof Cancellable cancellable) {
+                            CallCancellation.register(cancellable::cancel);
+                        }
+                        return request;
+                    }
+                })
+                .additionalInterceptors(retryingHedgingInterceptor)
+                .build();
     }
 }
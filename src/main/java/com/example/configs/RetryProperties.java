@@ -0,0 +1,31 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the retries of the GET calls to the upstreams, bound from the upstream.retry.* keys in application.properties
+// Only GET calls are retried as they are idempotent, see RetryingHedgingInterceptor
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "upstream.retry")
+public class RetryProperties {
+
+    private boolean enabled = true;
+
+    // Number of calls including the first one
+    private int maxAttempts = 3;
+
+    // Wait before the nth retry is random between 0 and initialBackoff * 2^(n-1), at most maxBackoff
+    private Duration initialBackoff = Duration.ofMillis(50);
+    private Duration maxBackoff = Duration.ofSeconds(1);
+
+    // Retries and hedged calls together are at most this share of the calls, plus a reserve of budgetMaxTokens for a burst
+    // so that retries can't multiply the load on an upstream which is down
+    private double budgetRatio = 0.1;
+    private int budgetMaxTokens = 10;
+
+}
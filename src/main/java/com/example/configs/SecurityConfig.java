@@ -1,15 +1,29 @@
 package com.example.configs;
 
+import com.example.security.CachingJwkSource;
+import com.example.security.CachingJwtDecoder;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.web.client.RestTemplate;
 
 
 // @Configuration annotation indicates that a class declares one or more @Bean methods and
 // may be processed by the Spring container to generate bean definitions and service requests for those beans at runtime
 @Configuration
+@EnableConfigurationProperties({TokenCacheProperties.class, JwtProperties.class})
 public class SecurityConfig {
 
     // This method creates a SecurityFilterChain bean that configures the security of the application
@@ -36,6 +50,8 @@ public class SecurityConfig {
                         // RequestMatchers are used to authorize the requests based on the request path i.e. /products/{id}
                         // HasAnyAuthority is used to authorize the requests based on the authorities i.e. SCOPE_ADMIN
 
+                        // Bulk mutations and their status are for admins only
+                        .requestMatchers("/products/bulk/**").hasAnyAuthority("SCOPE_ADMIN")
                         // Comment this line while using Redis as we are not using authentication while testing Redis
                         .requestMatchers("/products/{id}").hasAnyAuthority("SCOPE_ADMIN")
                         // Any other requests will be permitted
@@ -46,4 +62,30 @@ public class SecurityConfig {
         return http.build();
     }
 
+
+    // Keys of the Authorization Server, fetched from its JWK set URL in the background and kept when it is down, see CachingJwkSource
+    // The JWK set URL is configured directly, so no OIDC discovery call is made to the Authorization Server at startup
+    @Bean(destroyMethod = "close")
+    public CachingJwkSource jwkSource(OAuth2ResourceServerProperties resourceServerProperties, JwtProperties jwtProperties, RestTemplate restTemplate) {
+        OAuth2ResourceServerProperties.Jwt jwt = resourceServerProperties.getJwt();
+        // Spring Authorization Server publishes its keys at /oauth2/jwks of the issuer
+        String jwkSetUri = jwt.getJwkSetUri() != null ? jwt.getJwkSetUri() : jwt.getIssuerUri() + "/oauth2/jwks";
+        return new CachingJwkSource(restTemplate, jwkSetUri, jwtProperties.getJwkSetRefreshInterval(), jwtProperties.getJwkSetMinRefreshInterval());
+    }
+
+
+    // Verifies the tokens locally with the cached keys, this replaces the decoder Spring Boot creates from issuer-uri
+    // The issuer, expiry and not-before claims are still validated, decoded tokens are cached until they expire, see CachingJwtDecoder
+    @Bean
+    public JwtDecoder jwtDecoder(CachingJwkSource jwkSource, OAuth2ResourceServerProperties resourceServerProperties, JwtProperties jwtProperties, MeterRegistry meterRegistry) {
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        // Claims are validated by the Spring validators below
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {});
+        NimbusJwtDecoder nimbusJwtDecoder = new NimbusJwtDecoder(jwtProcessor);
+        String issuerUri = resourceServerProperties.getJwt().getIssuerUri();
+        nimbusJwtDecoder.setJwtValidator(issuerUri != null ? JwtValidators.createDefaultWithIssuer(issuerUri) : JwtValidators.createDefault());
+        return new CachingJwtDecoder(nimbusJwtDecoder, jwtProperties.getDecodedTokenCacheMaximumSize(), meterRegistry);
+    }
+
 }
@@ -0,0 +1,26 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the cache of tokens validated by User Service, bound from the product.auth.token-cache.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.auth.token-cache")
+public class TokenCacheProperties {
+
+    private boolean enabled = true;
+
+    private long maximumSize = 10_000;
+
+    // How long a valid token is trusted without asking User Service again, never longer than the expiry of the token itself
+    private Duration ttl = Duration.ofMinutes(5);
+
+    // How long a token rejected by User Service is rejected without asking User Service again
+    private Duration negativeTtl = Duration.ofSeconds(10);
+
+}
@@ -0,0 +1,19 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+
+// Base URLs of the services called by ProductService, bound from the upstream.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "upstream")
+public class UpstreamProperties {
+
+    private String fakeStoreBaseUrl = "https://fakestoreapi.com";
+
+    private String userServiceBaseUrl = "http://localhost:8080";
+
+}
@@ -0,0 +1,24 @@
+package com.example.configs;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import java.time.Duration;
+
+
+// Settings of the cache warm-up on startup, bound from the product.warm-up.* keys in application.properties
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "product.warm-up")
+public class WarmUpProperties {
+
+    private boolean enabled = true;
+
+    // The application reports ready once the warm-up is done or after this time, whichever comes first
+    private Duration timeBudget = Duration.ofSeconds(30);
+
+    // Number of the most requested product ids of the previous run which are loaded, see HotProductTracker
+    private int hotProductsLimit = 100;
+
+}
@@ -0,0 +1,36 @@
+package com.example.configs;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+
+// Non-blocking HTTP client used by WebClientProductService, only created when product.service.mode=reactive
+// The calls don't hold a thread while waiting for the response, so the number of calls in flight isn't limited by the thread pool
+
+@Configuration
+@ConditionalOnProperty(name = "product.service.mode", havingValue = "reactive")
+public class WebClientConfig {
+
+    // Pool and timeouts are taken from the same upstream.http.* properties as the RestTemplate
+    @Bean
+    public WebClient upstreamWebClient(WebClient.Builder webClientBuilder, HttpClientProperties properties) {
+        ConnectionProvider connectionProvider = ConnectionProvider.builder("upstream")
+                .maxConnections(properties.getMaxTotalConnections())
+                .pendingAcquireTimeout(properties.getConnectionRequestTimeout())
+                .maxIdleTime(properties.getIdleTimeout())
+                .maxLifeTime(properties.getTimeToLive())
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .responseTimeout(properties.getResponseTimeout());
+        return webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.controllers;
+
+import com.example.models.Product;
+import com.example.resilience.StaleResponses;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+
+// Writes products to the response as NDJSON i.e. one JSON object per line, each product as soon as it is passed in
+// Nothing is written before the first product, so an exception thrown before it is still answered by ExceptionHandlers
+// Until then the content type is application/json, which the ExceptionDto of ExceptionHandlers is written as
+// instead of failing the negotiation against the Accept: application/x-ndjson of the request
+// The headers are set with the first product, by then the service knows whether the products come from the stale cache
+// The response has no Content-Length and is sent with chunked transfer encoding once the output buffer fills up
+
+class NdjsonProductWriter implements Consumer<Product> {
+
+    private final ObjectMapper objectMapper;
+    private final HttpServletResponse response;
+    private JsonGenerator generator;
+
+
+    NdjsonProductWriter(ObjectMapper objectMapper, HttpServletResponse response) {
+        this.objectMapper = objectMapper;
+        this.response = response;
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    }
+
+
+    @Override
+    public void accept(Product product) {
+        try {
+            if(generator == null) {
+                open();
+            }
+            generator.writeObject(product);
+            generator.writeRaw('\n');
+        } catch (IOException ex) {
+            // Most likely the client has gone away
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+
+    // Writes the rest of the buffered products, an empty list gives an empty body
+    void finish() throws IOException {
+        if(generator == null) {
+            open();
+        }
+        generator.close();
+    }
+
+
+    private void open() throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        if(StaleResponses.isStale()) {
+            response.setHeader(StaleResponses.HEADER, "true");
+        }
+        // The servlet container closes the output stream at the end of the request
+        generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Each product ends with its own new line instead of the space Jackson puts between root values
+        generator.setRootValueSeparator(null);
+    }
+}
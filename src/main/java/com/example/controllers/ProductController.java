@@ -1,37 +1,72 @@
 package com.example.controllers;
 
+import com.example.cache.ResponseBodies;
+import com.example.catalog.CatalogPage;
+import com.example.catalog.CatalogQuery;
+import com.example.dtos.BatchProductsDto;
 import com.example.dtos.FakeStoreProductDto;
-import com.example.userServiceUtils.UserDto;
+import com.example.dtos.MutationStatusDto;
+import com.example.dtos.ProductMutationDto;
+import com.example.configs.ProductCacheProperties;
 import com.example.exceptions.*;
 import com.example.models.Product;
+import com.example.resilience.StaleResponses;
+import com.example.services.ProductMutationService;
 import com.example.services.ProductService;
+import com.example.services.TokenValidationService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
 
 
+// Blocking endpoints, used unless product.service.mode=reactive which switches to ReactiveProductController
 @RestController
 @RequestMapping("/products")
+@ConditionalOnProperty(name = "product.service.mode", havingValue = "blocking", matchIfMissing = true)
 public class ProductController {
 
     @Autowired
     private ProductService productService;
 
+    // Applies the bulk mutations in the background, see ProductMutationService
+    @Autowired
+    private ProductMutationService productMutationService;
+
+    // Writes the streamed responses, see NdjsonProductWriter
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // JSON bytes and ETags of the cached products and lists, see ResponseBodies
+    @Autowired
+    private ResponseBodies responseBodies;
+
+    // The time to live of each cache entry is also how long clients may keep the responses built from it
+    @Autowired
+    private ProductCacheProperties cacheProperties;
+
 
     // ********************* START - AUTHORIZATION USING USER SERVICE ********************* //
     @Autowired
-    private RestTemplate restTemplate;  // RestTemplate is used to make HTTP requests to user service API
+    private TokenValidationService tokenValidationService;  // Calls user service API to validate the token, the result is cached for repeat callers
 
     // Get Product with given Id with Authentication Token in Header - This is a protected route and requires a valid token to access product data with given Id
     @GetMapping("/auth/{id}")
     public ResponseEntity<Product> getProductByIdAuth(@PathVariable("id") long id, @RequestHeader("token") String token) throws HttpClientErrorException, ProductNotFoundException {
         // Validate the token by calling the User Service API with the token in the header and get the user details if token is valid
         // else HttpClientErrorException is thrown as Status code returned is UNAUTHORIZED, this is handled by ExceptionHandlers
-        restTemplate.getForObject("http://localhost:8080/user/validate/"+token, UserDto.class);
+        // A token validated recently is not sent to User Service again, see TokenValidationService
+        tokenValidationService.validateToken(token);
         // If token is valid then no exception is thrown, return the product with the given id
         return new ResponseEntity<>(productService.getProductById(id), HttpStatus.OK);
     }
@@ -44,19 +79,72 @@ public class ProductController {
         // Use ResponseEntity as returnType because we want to return a response with status code, if Product is null then we need to specify different status code
         Product product = productService.getProductById(id);
         // If product is null then it throws ProductNotFoundException which is handled by ExceptionHandlers
-        // Else return OK status code along with product
-        return new ResponseEntity<>(product, HttpStatus.OK);
+        // Else return OK status code along with product, or NOT_MODIFIED if the client already has it
+        // This route needs a token, so only the client itself may keep the response
+        return cacheable(product, responseBodies.tagOf(product), cacheProperties.getProductTtl(), false);
     }
 
 
-    // Get all the Products list
+    // Get all the Products list, optionally filtered, sorted and paged i.e. /products?category=jewelery&minPrice=10&sort=-price&offset=0&limit=20
     @GetMapping()
+    public ResponseEntity<?> getAllProducts(CatalogQuery query, @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        // Without query parameters return the whole list as before, as the JSON bytes kept for the cached list unless that mode is disabled
+        if(query.isEmpty()) {
+            if(!cacheProperties.getResponseBodies().isEnabled()) {
+                return getAllProducts();
+            }
+            return serialized(productService.getAllProducts(), cacheProperties.getCatalogTtl(), acceptEncoding);
+        }
+        // Else return only the requested page, the number of all the matching products is sent in the X-Total-Count header
+        // An invalid query throws IllegalArgumentException which is handled by ExceptionHandlers
+        // The page is never hashed, its ETag comes from the version or the ETag of the catalog it was taken from, the query and the total
+        CatalogPage page = productService.getProducts(query);
+        String catalogTag = page.getCatalogVersion() != null
+                ? "catalog:v" + cacheProperties.getKeyVersion() + ":" + page.getCatalogVersion()
+                : responseBodies.tagOf(page.getCatalog());
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(page.getTotal()))
+                .eTag(responseBodies.derivedTag(catalogTag, query.key() + "|" + page.getTotal()))
+                .cacheControl(cacheControl(cacheProperties.getCatalogTtl(), true))
+                .body(page.getProducts());
+    }
+
+
+    // Get all the Products list
     public ResponseEntity<List<Product>> getAllProducts() {
         // Get all the products from the Fake Store API
         List<Product> products = productService.getAllProducts();
         // If products is null or empty then NullPointerException is thrown which is handled by ExceptionHandlers
-        // Else return OK status code along with products list
-        return new ResponseEntity<>(products, HttpStatus.OK);
+        // Else return OK status code along with products list, or NOT_MODIFIED if the client already has it
+        return cacheable(products, responseBodies.tagOf(products), cacheProperties.getCatalogTtl(), true);
+    }
+
+
+    // Stream all the Products list as NDJSON i.e. one Product per line, used when the client sends Accept: application/x-ndjson
+    // Each Product is written as soon as it comes from the cache or from the response of the Fake Store API, so the list is never buffered as one JSON array
+    // Clients asking for application/json or anything else get the JSON array of getAllProducts
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamAllProducts(CatalogQuery query, HttpServletResponse response) throws IOException {
+        NdjsonProductWriter writer = new NdjsonProductWriter(objectMapper, response);
+        if(query.isEmpty()) {
+            productService.streamAllProducts(writer);
+        } else {
+            // A page is already in memory, it is only written line by line
+            CatalogPage page = productService.getProducts(query);
+            response.setHeader("X-Total-Count", String.valueOf(page.getTotal()));
+            page.getProducts().forEach(writer);
+        }
+        writer.finish();
+    }
+
+
+    // Get the Products with the given Ids in one request i.e. /products?ids=1,2,3
+    @GetMapping(params = "ids")
+    public ResponseEntity<BatchProductsDto> getProductsByIds(@RequestParam("ids") List<Long> ids) {
+        // Products missing from the cache are fetched from the Fake Store API concurrently
+        BatchProductsDto batchProductsDto = productService.getProductsByIds(ids);
+        // Return OK status code even if some ids were not found, they are listed in errors along with the reason
+        return new ResponseEntity<>(batchProductsDto, HttpStatus.OK);
     }
 
 
@@ -66,19 +154,34 @@ public class ProductController {
         // Get all the categories from the Fake Store API
         List<String> categories = productService.getAllCategories();
         // If products is null or empty then NullPointerException is thrown which is handled by ExceptionHandlers
-        // Else return OK status code along with categories list
-        return new ResponseEntity<>(categories, HttpStatus.OK);
+        // Else return OK status code along with categories list, or NOT_MODIFIED if the client already has it
+        // /products/categories is matched by the /products/{id} rule of SecurityConfig and needs a token, so only the client itself may keep the response
+        return cacheable(categories, responseBodies.tagOf(categories), cacheProperties.getCategoriesTtl(), false);
     }
 
 
     // Get all the Products with given Category
     @GetMapping("/categories/{category}")
-    public ResponseEntity<List<Product>> getProductsByCategory(@PathVariable("category") String category) {
+    public ResponseEntity<?> getProductsByCategory(@PathVariable("category") String category, @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         // Get all the products with the given category from the Fake Store API
         List<Product> products = productService.getProductsByCategory(category);
+        // Written as the JSON bytes kept for the cached list unless that mode is disabled
+        if(cacheProperties.getResponseBodies().isEnabled()) {
+            return serialized(products, cacheProperties.getCategoryTtl(), acceptEncoding);
+        }
         // If products is null or empty then NullPointerException is thrown which is handled by ExceptionHandlers
-        // Else return OK status code along with products list
-        return new ResponseEntity<>(products, HttpStatus.OK);
+        // Else return OK status code along with products list, or NOT_MODIFIED if the client already has it
+        // The products come from the list of all products when it is cached, so they may be kept as long as that list
+        return cacheable(products, responseBodies.tagOf(products), cacheProperties.getCategoryTtl(), true);
+    }
+
+
+    // Stream all the Products with given Category as NDJSON, see streamAllProducts
+    @GetMapping(value = "/categories/{category}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamProductsByCategory(@PathVariable("category") String category, HttpServletResponse response) throws IOException {
+        NdjsonProductWriter writer = new NdjsonProductWriter(objectMapper, response);
+        productService.streamProductsByCategory(category, writer);
+        writer.finish();
     }
 
 
@@ -124,6 +227,29 @@ public class ProductController {
     }
 
 
+    // Create, replace, update or delete many Products in one request i.e. POST /products/bulk with a JSON array of mutations
+    @PostMapping("/bulk")
+    public ResponseEntity<List<MutationStatusDto>> bulkMutateProducts(@RequestBody List<ProductMutationDto> mutations) {
+        // The mutations are queued and applied to the Fake Store API in the background, the cache already reflects them
+        // An invalid mutation or too many mutations throw IllegalArgumentException which is handled by ExceptionHandlers
+        List<MutationStatusDto> statuses = productMutationService.submit(mutations);
+        // Return ACCEPTED status code along with the status of every mutation, a mutation sent again with the same idempotency key is marked duplicate
+        return new ResponseEntity<>(statuses, HttpStatus.ACCEPTED);
+    }
+
+
+    // Get the status of a bulk mutation with given idempotency key i.e. whether it has been applied to the Fake Store API
+    @GetMapping("/bulk/{idempotencyKey}")
+    public ResponseEntity<MutationStatusDto> getMutationStatus(@PathVariable("idempotencyKey") String idempotencyKey) {
+        MutationStatusDto status = productMutationService.getStatus(idempotencyKey);
+        // If the key is unknown or its status has expired then return NOT_FOUND status code
+        if(status == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(status, HttpStatus.OK);
+    }
+
+
     // Delete Product with given Id
     @DeleteMapping("/{id}")
     public ResponseEntity<Product> deleteProduct(@PathVariable("id") long id) {
@@ -136,4 +262,70 @@ public class ProductController {
         // Else return OK status code along with product
         return new ResponseEntity<>(product, HttpStatus.OK);
     }
+
+
+    // OK response with the ETag and Cache-Control headers of a cached value
+    // A GET whose If-None-Match holds the ETag is answered with NOT_MODIFIED and no body, Spring checks it before the body is serialized
+    private <T> ResponseEntity<T> cacheable(T body, String etag, Duration ttl, boolean shared) {
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl(ttl, shared))
+                .body(body);
+    }
+
+
+    // OK response with the JSON bytes kept for a cached list, written as they are by ByteArrayHttpMessageConverter i.e. without any object mapping
+    // Clients sending Accept-Encoding: gzip get the compressed copy when there is one, which has its own ETag as it is another representation
+    private ResponseEntity<byte[]> serialized(Object value, Duration ttl, String acceptEncoding) {
+        ResponseBodies.SerializedBody body = responseBodies.bodyOf(value);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(cacheControl(ttl, true))
+                // Shared caches must not hand the gzip copy to a client which doesn't accept it
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if(body.getGzip() != null && acceptsGzip(acceptEncoding)) {
+            return response.eTag(body.getEtag() + "-gzip")
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(body.getGzip());
+        }
+        return response.eTag(body.getEtag()).body(body.getJson());
+    }
+
+
+    // Accept-Encoding: gzip, deflate, br or gzip;q=0.5, where * stands for any coding and q=0 means not acceptable
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null) {
+            return false;
+        }
+        for(String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if(!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for(int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if(parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException ex) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    // Clients may keep a response for the time to live of the cache entry it was read from
+    // A stale copy served while the Fake Store API is down must be revalidated on every use, so clients pick up the fresh data once it is back
+    private static CacheControl cacheControl(Duration ttl, boolean shared) {
+        if(StaleResponses.isStale()) {
+            return CacheControl.noCache();
+        }
+        CacheControl cacheControl = CacheControl.maxAge(ttl);
+        return shared ? cacheControl.cachePublic() : cacheControl.cachePrivate();
+    }
 }
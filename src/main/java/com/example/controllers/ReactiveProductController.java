@@ -0,0 +1,109 @@
+package com.example.controllers;
+
+import com.example.configs.UpstreamProperties;
+import com.example.dtos.FakeStoreProductDto;
+import com.example.models.Product;
+import com.example.services.ReactiveProductService;
+import com.example.userServiceUtils.UserDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import java.util.*;
+
+
+// Same endpoints as ProductController but backed by ReactiveProductService, used when product.service.mode=reactive
+// Returning a Mono releases the Tomcat worker thread while Fake Store API is called, the response is written once the Mono emits
+// Exceptions emitted by the Mono are handled by ExceptionHandlers like the exceptions thrown by ProductController
+
+@RestController
+@RequestMapping("/products")
+@ConditionalOnProperty(name = "product.service.mode", havingValue = "reactive")
+public class ReactiveProductController {
+
+    @Autowired
+    private ReactiveProductService reactiveProductService;
+
+    @Autowired
+    private WebClient upstreamWebClient;  // WebClient is used to make HTTP requests to user service API
+
+    @Autowired
+    private UpstreamProperties upstreamProperties;
+
+
+    // Get Product with given Id with Authentication Token in Header - the token is validated by User Service before the product is returned
+    @GetMapping("/auth/{id}")
+    public Mono<ResponseEntity<Product>> getProductByIdAuth(@PathVariable("id") long id, @RequestHeader("token") String token) {
+        // If the token is invalid then User Service returns UNAUTHORIZED and WebClientResponseException is emitted, this is handled by ExceptionHandlers
+        return upstreamWebClient.get()
+                .uri(upstreamProperties.getUserServiceBaseUrl() + "/user/validate/{token}", token)
+                .retrieve()
+                .bodyToMono(UserDto.class)
+                .then(reactiveProductService.getProductById(id))
+                .map(product -> new ResponseEntity<>(product, HttpStatus.OK));
+    }
+
+
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<Product>> getProductById(@PathVariable("id") long id) {
+        // If product is not found then ProductNotFoundException is emitted which is handled by ExceptionHandlers
+        return reactiveProductService.getProductById(id)
+                .map(product -> new ResponseEntity<>(product, HttpStatus.OK));
+    }
+
+
+    @GetMapping()
+    public Mono<ResponseEntity<List<Product>>> getAllProducts() {
+        return reactiveProductService.getAllProducts()
+                .map(products -> new ResponseEntity<>(products, HttpStatus.OK));
+    }
+
+
+    @GetMapping("/categories")
+    public Mono<ResponseEntity<List<String>>> getAllCategories() {
+        return reactiveProductService.getAllCategories()
+                .map(categories -> new ResponseEntity<>(categories, HttpStatus.OK));
+    }
+
+
+    @GetMapping("/categories/{category}")
+    public Mono<ResponseEntity<List<Product>>> getProductsByCategory(@PathVariable("category") String category) {
+        return reactiveProductService.getProductsByCategory(category)
+                .map(products -> new ResponseEntity<>(products, HttpStatus.OK));
+    }
+
+
+    // For the mutations an empty Mono i.e. no product returned by Fake Store API gives NO_CONTENT status code as in ProductController
+    @PutMapping("/{id}")
+    public Mono<ResponseEntity<Product>> replaceProduct(@PathVariable("id") long id, @RequestBody FakeStoreProductDto fakeStoreProductDto) {
+        return withStatus(reactiveProductService.replaceProduct(id, fakeStoreProductDto), HttpStatus.OK);
+    }
+
+
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<Product>> updateProduct(@PathVariable("id") long id, @RequestBody FakeStoreProductDto fakeStoreProductDto) {
+        return withStatus(reactiveProductService.updateProduct(id, fakeStoreProductDto), HttpStatus.OK);
+    }
+
+
+    @PostMapping()
+    public Mono<ResponseEntity<Product>> createProduct(@RequestBody FakeStoreProductDto fakeStoreProductDto) {
+        return withStatus(reactiveProductService.createProduct(fakeStoreProductDto), HttpStatus.CREATED);
+    }
+
+
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<Product>> deleteProduct(@PathVariable("id") long id) {
+        return withStatus(reactiveProductService.deleteProduct(id), HttpStatus.OK);
+    }
+
+
+    private static Mono<ResponseEntity<Product>> withStatus(Mono<Product> product, HttpStatus status) {
+        return product
+                .map(body -> new ResponseEntity<>(body, status))
+                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.dtos;
+
+import com.example.models.Product;
+import lombok.Getter;
+import lombok.Setter;
+import java.util.*;
+
+// Response of GET /products?ids=..., the products found in the order of the requested ids and the error of every id which could not be fetched
+@Getter
+@Setter
+public class BatchProductsDto {
+
+    private List<Product> products = new ArrayList<>();
+
+    private Map<Long, String> errors = new LinkedHashMap<>();
+
+}
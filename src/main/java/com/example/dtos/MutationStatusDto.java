@@ -0,0 +1,32 @@
+package com.example.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+
+// State of a mutation sent to POST /products/bulk, returned by POST /products/bulk and GET /products/bulk/{idempotencyKey}
+@Getter
+@Setter
+public class MutationStatusDto {
+
+    public enum Status {
+        // Accepted and already visible in the cache, not yet applied to the Fake Store API
+        PENDING,
+        APPLIED,
+        FAILED,
+        // Not accepted because the queue was full, it can be sent again with the same key
+        REJECTED
+    }
+
+    private String idempotencyKey;
+
+    private Status status;
+
+    // True when the key had already been used, the status is then the one of the first mutation sent with it
+    private boolean duplicate;
+
+    // Id of the product once applied, for a CREATE the id given by the Fake Store API
+    private Long productId;
+
+    private String error;
+
+}
@@ -0,0 +1,26 @@
+package com.example.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+
+// One element of POST /products/bulk, a create, replace, update or delete of a product which is applied in the background
+@Getter
+@Setter
+public class ProductMutationDto {
+
+    public enum Operation {
+        CREATE, REPLACE, UPDATE, DELETE
+    }
+
+    // Chosen by the client, a mutation sent again with the same key is not applied twice. A key is generated when none is given
+    private String idempotencyKey;
+
+    private Operation operation;
+
+    // Id of the product, not used by CREATE
+    private Long id;
+
+    // New data of the product, not used by DELETE
+    private FakeStoreProductDto product;
+
+}
@@ -3,11 +3,14 @@ package com.example.exceptionHandlers;
 import com.example.dtos.ExceptionDto;
 import com.example.dtos.ProductNotFoundDto;
 import com.example.exceptions.ProductNotFoundException;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 
 @ControllerAdvice
@@ -38,6 +41,17 @@ public class ExceptionHandlers {
     }
 
 
+    // Exception Handler for IllegalArgumentException i.e. too many ids in GET /products?ids=...
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<ExceptionDto> handleIllegalArgumentException(IllegalArgumentException ex) {
+        // If IllegalArgumentException is thrown then return BAD_REQUEST status code along with message from exception and resolution
+        ExceptionDto exceptionDto = new ExceptionDto();
+        exceptionDto.setMessage(ex.getMessage());
+        exceptionDto.setResolution("Please check the request parameters");
+        return new ResponseEntity<>(exceptionDto, HttpStatus.BAD_REQUEST);
+    }
+
+
     // Exception Handler for ProductNotFoundException, takes ProductNotFoundException as parameter
     @ExceptionHandler(ProductNotFoundException.class)
     public ResponseEntity<ProductNotFoundDto> handleProductNotFoundException(ProductNotFoundException ex) {
@@ -58,4 +72,27 @@ public class ExceptionHandlers {
         return new ResponseEntity<>(exceptionDto, ex.getStatusCode());
     }
 
+
+    // Exception Handler for WebClientResponseException, thrown instead of HttpClientErrorException when product.service.mode=reactive
+    @ExceptionHandler(WebClientResponseException.class)
+    public ResponseEntity<ExceptionDto> handleWebClientResponseException(WebClientResponseException ex) {
+        // Return status code from the exception along with message and resolution like handleHttpClientErrorException
+        ExceptionDto exceptionDto = new ExceptionDto();
+        exceptionDto.setMessage(ex.toString());
+        exceptionDto.setResolution("Please check the request URL and token as it might be incorrect");
+        return new ResponseEntity<>(exceptionDto, ex.getStatusCode());
+    }
+
+
+    // Exception Handler for CallNotPermittedException and BulkheadFullException, thrown when an upstream is not called because
+    // its circuit breaker is open or too many calls to it are running, and no stale copy of the data was cached
+    @ExceptionHandler({CallNotPermittedException.class, BulkheadFullException.class})
+    public ResponseEntity<ExceptionDto> handleUpstreamUnavailableException(RuntimeException ex) {
+        // Return SERVICE_UNAVAILABLE status code along with message and resolution
+        ExceptionDto exceptionDto = new ExceptionDto();
+        exceptionDto.setMessage(ex.getMessage());
+        exceptionDto.setResolution("The upstream service is unavailable, please try again later");
+        return new ResponseEntity<>(exceptionDto, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
 }
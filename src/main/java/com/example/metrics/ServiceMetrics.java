@@ -0,0 +1,48 @@
+package com.example.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+
+// Latency of the read methods of the product service split by where the value came from
+//   product.service.calls{method=getProductById,cache=hit}   -> served from the near cache or Redis
+//   product.service.calls{method=getProductById,cache=miss}  -> fetched from the Fake Store API
+//   product.service.calls{method=getProductById,cache=stale} -> Fake Store API couldn't be called, the stale copy was tried
+// The histogram buckets are limited to between 100us and 10s, so each timer costs a few dozen buckets instead of the full range
+
+@Component
+public class ServiceMetrics {
+
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String STALE = "stale";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // One timer per method and cache result, looked up without building the tags on every call
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+
+    // Records the time since startNanos, taken with System.nanoTime() when the method was entered
+    public void record(String method, String cache, long startNanos) {
+        timer(method, cache).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    private Timer timer(String method, String cache) {
+        return timers.computeIfAbsent(method + ":" + cache, key -> Timer.builder("product.service.calls")
+                .tag("method", method)
+                .tag("cache", cache)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.metrics;
+
+import io.micrometer.common.KeyValue;
+import org.springframework.http.client.observation.ClientRequestObservationContext;
+import org.springframework.http.client.observation.DefaultClientRequestObservationConvention;
+
+
+// Tags the RestTemplate calls in http.client.requests with the path template instead of the path, see UriTemplates
+// i.e. http.client.requests{client.name=fakestoreapi.com,uri=/products/{id}} instead of one series per product id
+
+public class TemplatedClientRequestObservationConvention extends DefaultClientRequestObservationConvention {
+
+    @Override
+    protected KeyValue uri(ClientRequestObservationContext context) {
+        if(context.getCarrier() == null) {
+            return super.uri(context);
+        }
+        return KeyValue.of("uri", UriTemplates.normalize(context.getCarrier().getURI()));
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.metrics;
+
+import io.micrometer.common.KeyValue;
+import org.springframework.web.reactive.function.client.ClientRequestObservationContext;
+import org.springframework.web.reactive.function.client.DefaultClientRequestObservationConvention;
+
+
+// Same as TemplatedClientRequestObservationConvention for the WebClient calls of the reactive mode
+// Most of its calls already pass a template i.e. /products/{id}, but the URLs of a category are concatenated
+
+public class TemplatedWebClientRequestObservationConvention extends DefaultClientRequestObservationConvention {
+
+    @Override
+    protected KeyValue uri(ClientRequestObservationContext context) {
+        if(context.getRequest() == null) {
+            return super.uri(context);
+        }
+        return KeyValue.of("uri", UriTemplates.normalize(context.getRequest().url()));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.metrics;
+
+import java.net.URI;
+
+
+// Turns the path of an upstream call back into its template, so that all the calls of an endpoint share one meter
+// The services build the URLs by concatenation i.e. fakeStoreUrl("/products/" + id), so the path holds the id itself
+// Without this every id, category and token would be a tag value of its own and the token would end up in the metrics
+
+public final class UriTemplates {
+
+    private UriTemplates() {
+    }
+
+
+    // i.e. /products/7 -> /products/{id}, /products/category/jewelery -> /products/category/{category}, /user/validate/abc -> /user/validate/{token}
+    public static String normalize(URI uri) {
+        String path = uri.getRawPath();
+        if(path == null || path.isEmpty()) {
+            return "/";
+        }
+        String[] segments = path.split("/");
+        StringBuilder template = new StringBuilder();
+        for(int i = 1; i < segments.length; i++) {
+            String segment = segments[i];
+            if(!segment.isEmpty() && segment.chars().allMatch(Character::isDigit)) {
+                segment = "{id}";
+            } else if("category".equals(segments[i - 1])) {
+                segment = "{category}";
+            } else if("validate".equals(segments[i - 1])) {
+                segment = "{token}";
+            }
+            template.append('/').append(segment);
+        }
+        return template.length() == 0 ? "/" : template.toString();
+    }
+}
@@ -2,14 +2,20 @@ package com.example.models;
 
 import lombok.Getter;
 import lombok.Setter;
+import java.io.Serial;
 import java.io.Serializable;
 
-// Implement Serializable interface to make the object serializable else it will throw an error while storing in Redis
+// Implement Serializable interface to make the object serializable, Redis values are written in a compact format (see CacheValueSerializer)
+// but Java serialization is still used when product.cache.codec.format=jdk and to read the values written before
 
 @Getter
 @Setter
 public class Product implements Serializable {
 
+    // The value computed for the class before it was declared, so the values already written with Java serialization can still be read
+    @Serial
+    private static final long serialVersionUID = -2612272028995118088L;
+
     private long id;
 
     private String title;
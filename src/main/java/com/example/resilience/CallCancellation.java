@@ -0,0 +1,64 @@
+package com.example.resilience;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+// Lets one call of a hedged pair cancel the other one, which is blocked on its own thread in the HTTP client
+// A call runs inside run(), the request factory registers how to abort the request it creates on that thread (see RestTemplateConfig),
+// and cancel() from any other thread aborts it, so the blocked thread gets an IOException and is free again
+// A cancel before the request is registered aborts it as soon as it is
+
+public class CallCancellation {
+
+    private static final ThreadLocal<CallCancellation> CURRENT = new ThreadLocal<>();
+
+    // Stands in for the abort of a call which has been cancelled, so a request registered afterwards is aborted right away
+    private static final Runnable CANCELLED = () -> {};
+
+    private final AtomicReference<Runnable> abort = new AtomicReference<>();
+
+
+    // Registers how to abort the request the current call is sending, does nothing outside of a call
+    public static void register(Runnable requestAbort) {
+        CallCancellation call = CURRENT.get();
+        if(call != null && !call.abort.compareAndSet(null, requestAbort) && call.abort.get() == CANCELLED) {
+            requestAbort.run();
+        }
+    }
+
+
+    // Whether the call running on this thread has been cancelled, its failure is then not a failure of the upstream
+    public static boolean isCurrentCancelled() {
+        CallCancellation call = CURRENT.get();
+        return call != null && call.isCancelled();
+    }
+
+
+    public <T, E extends Exception> T run(Call<T, E> call) throws E {
+        CURRENT.set(this);
+        try {
+            return call.execute();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+
+    public void cancel() {
+        Runnable requestAbort = abort.getAndSet(CANCELLED);
+        if(requestAbort != null && requestAbort != CANCELLED) {
+            requestAbort.run();
+        }
+    }
+
+
+    public boolean isCancelled() {
+        return abort.get() == CANCELLED;
+    }
+
+
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T execute() throws E;
+    }
+}
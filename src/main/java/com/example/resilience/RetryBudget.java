@@ -0,0 +1,42 @@
+package com.example.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Token bucket which limits the retries to a share of the calls: every call adds ratio of a token, every retry takes a whole token
+// The bucket holds at most maxTokens, so a burst of failures after a quiet time can use at most maxTokens retries
+
+public class RetryBudget {
+
+    // Tokens are kept in thousandths so that a fraction of a token can be added without floating point
+    private static final long TOKEN = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+
+    public RetryBudget(double ratio, int maxTokens) {
+        this.deposit = Math.round(ratio * TOKEN);
+        this.capacity = maxTokens * TOKEN;
+        this.balance = new AtomicLong(capacity);
+    }
+
+
+    public void deposit() {
+        balance.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+    }
+
+
+    public boolean tryWithdraw() {
+        while(true) {
+            long current = balance.get();
+            if(current < TOKEN) {
+                return false;
+            }
+            if(balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.resilience;
+
+import com.example.configs.HedgeProperties;
+import com.example.configs.RetryProperties;
+import com.example.metrics.UriTemplates;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Retries and hedges the GET calls to the upstreams, other methods are not idempotent and are passed through
+//   Retry -> an I/O error (connect or response timeout) or a 502, 503 or 504 is retried up to maxAttempts times with a jittered backoff
+//   Hedge -> a call which takes longer than the observed p95 of its endpoint is sent a second time and the first response wins,
+//            which cuts the tail latency caused by a single slow connection or server
+// Retries and hedged calls are paid from a RetryBudget, so they stay a small share of the calls even when the upstream is down
+// The latency of every call is recorded per endpoint in upstream.client.requests{upstream,endpoint} which gives the hedge threshold
+// The endpoint is the path template of the call, see UriTemplates
+
+// This interceptor has to be the last one: executing the request again skips the interceptors which come before it
+// Every call it sends, the first one as well as each retry and hedged call, goes through the guard i.e. UpstreamResilienceInterceptor,
+// so each takes its own bulkhead permit and is one call of the circuit breaker, and a retry gives its permit back before the backoff
+// The first call runs on the caller's thread, only the hedged call is handed to the executor once the hedge delay has passed,
+// and whichever call answers first aborts the other one through CallCancellation so neither thread waits on a response nobody reads
+
+public class RetryingHedgingInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final int HEDGED = 1;
+    private static final int SETTLED = 2;
+
+    private final ClientHttpRequestInterceptor guard;
+    private final RetryProperties retryProperties;
+    private final HedgeProperties hedgeProperties;
+    private final MeterRegistry meterRegistry;
+    private final RetryBudget budget;
+    private final Executor hedgeExecutor;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Counter retries;
+    private final Counter hedges;
+    private final Counter budgetExhausted;
+
+
+    public RetryingHedgingInterceptor(ClientHttpRequestInterceptor guard, RetryProperties retryProperties, HedgeProperties hedgeProperties, MeterRegistry meterRegistry,
+                                      Executor hedgeExecutor) {
+        this.guard = guard;
+        this.retryProperties = retryProperties;
+        this.hedgeProperties = hedgeProperties;
+        this.meterRegistry = meterRegistry;
+        this.budget = new RetryBudget(retryProperties.getBudgetRatio(), retryProperties.getBudgetMaxTokens());
+        // Hedged calls take a bulkhead permit of their own, so the bulkhead bounds them as well as the executor does
+        this.hedgeExecutor = hedgeExecutor;
+        this.retries = meterRegistry.counter("upstream.client.retries");
+        this.hedges = meterRegistry.counter("upstream.client.hedges");
+        this.budgetExhausted = meterRegistry.counter("upstream.client.retry.budget.exhausted");
+    }
+
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if(request.getMethod() != HttpMethod.GET) {
+            return guard.intercept(request, body, execution);
+        }
+        budget.deposit();
+        Timer timer = timer(request.getURI());
+        for(int attempt = 1; ; attempt++) {
+            ClientHttpResponse response = null;
+            IOException failure = null;
+            try {
+                response = hedgeProperties.isEnabled() ? executeHedged(timer, request, body, execution) : executeTimed(timer, request, body, execution);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            boolean retryable = failure != null || isRetryable(response);
+            if(!retryable || !retryProperties.isEnabled() || attempt >= retryProperties.getMaxAttempts() || !withdraw()) {
+                if(failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            // Closing the response gives its bulkhead permit back, so no permit is held while waiting
+            if(response != null) {
+                response.close();
+            }
+            retries.increment();
+            sleep(backoff(attempt));
+        }
+    }
+
+
+    private ClientHttpResponse executeTimed(Timer timer, HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return guard.intercept(request, body, execution);
+        } finally {
+            // An aborted call would pull the latency of the endpoint and so the hedge delay down
+            if(!CallCancellation.isCurrentCancelled()) {
+                timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+
+    // The call is sent on the caller's thread, the same call is sent again on the executor if no answer came within the hedge delay
+    // The first response wins and the other call is aborted, it fails only if both calls fail
+    private ClientHttpResponse executeHedged(Timer timer, HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Duration delay = hedgeDelay(timer);
+        if(delay == null) {
+            return executeTimed(timer, request, body, execution);
+        }
+        CallCancellation primary = new CallCancellation();
+        CallCancellation backup = new CallCancellation();
+        CompletableFuture<ClientHttpResponse> result = new CompletableFuture<>();
+        // 0 -> the first call is on its own, HEDGED -> the hedged call has been sent, SETTLED -> the first call ended before it was
+        AtomicInteger state = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS, hedgeExecutor).execute(() -> {
+            // Slower than usual, send the same call again unless the budget is used up
+            if(state.get() != 0 || !withdraw() || !state.compareAndSet(0, HEDGED)) {
+                return;
+            }
+            hedges.increment();
+            try {
+                ClientHttpResponse response = backup.run(() -> executeTimed(timer, request, body, execution));
+                if(result.complete(response)) {
+                    primary.cancel();
+                } else {
+                    response.close();
+                }
+            } catch (IOException | RuntimeException ex) {
+                if(failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+
+        ClientHttpResponse response;
+        try {
+            response = primary.run(() -> executeTimed(timer, request, body, execution));
+        } catch (IOException | RuntimeException ex) {
+            // Aborted because the hedged call answered, or failed while the hedged call may still answer
+            if(primary.isCancelled()) {
+                return await(result);
+            }
+            if(state.compareAndSet(0, SETTLED)) {
+                throw ex;
+            }
+            if(failures.incrementAndGet() == 2) {
+                result.completeExceptionally(ex);
+            }
+            return await(result);
+        }
+        if(state.compareAndSet(0, SETTLED)) {
+            return response;
+        }
+        if(result.complete(response)) {
+            backup.cancel();
+            return response;
+        }
+        // The hedged call answered first, closing this response gives its connection back to the pool
+        response.close();
+        return await(result);
+    }
+
+
+    // The configured percentile of the latency of the endpoint, null while the endpoint has too few calls
+    private Duration hedgeDelay(Timer timer) {
+        if(timer.count() < hedgeProperties.getMinSamples()) {
+            return null;
+        }
+        for(ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+            if(value.percentile() == hedgeProperties.getPercentile()) {
+                Duration observed = Duration.ofNanos((long) value.value(TimeUnit.NANOSECONDS));
+                return observed.compareTo(hedgeProperties.getMinDelay()) > 0 ? observed : hedgeProperties.getMinDelay();
+            }
+        }
+        return null;
+    }
+
+
+    private Timer timer(URI uri) {
+        String endpoint = UriTemplates.normalize(uri);
+        return timers.computeIfAbsent(uri.getHost() + endpoint, key -> Timer.builder("upstream.client.requests")
+                .tag("upstream", uri.getHost())
+                .tag("endpoint", endpoint)
+                .publishPercentiles(hedgeProperties.getPercentile())
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+
+    private static boolean isRetryable(ClientHttpResponse response) throws IOException {
+        int status = response.getStatusCode().value();
+        return status == 502 || status == 503 || status == 504;
+    }
+
+
+    private boolean withdraw() {
+        if(budget.tryWithdraw()) {
+            return true;
+        }
+        budgetExhausted.increment();
+        return false;
+    }
+
+
+    // Full jitter i.e. random between 0 and initialBackoff * 2^(attempt-1), so the retries of many callers don't arrive together
+    private Duration backoff(int attempt) {
+        long ceiling = Math.min(retryProperties.getMaxBackoff().toMillis(), retryProperties.getInitialBackoff().toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+
+    private static ClientHttpResponse await(CompletableFuture<ClientHttpResponse> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            throw unwrap(ex);
+        }
+    }
+
+
+    private static IOException unwrap(Exception ex) {
+        if(ex instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException("Interrupted while waiting for the upstream");
+        }
+        Throwable cause = ex.getCause();
+        if(cause instanceof IOException ioException) {
+            return ioException;
+        }
+        if(cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        return new IOException(cause);
+    }
+
+
+    private static void sleep(Duration duration) throws InterruptedIOException {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
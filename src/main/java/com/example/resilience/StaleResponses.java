@@ -0,0 +1,33 @@
+package com.example.resilience;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+
+// Marks the current request as answered from the stale cache, StaleResponseHeaderAdvice then adds the X-Cache-Stale header to its response
+
+public final class StaleResponses {
+
+    public static final String HEADER = "X-Cache-Stale";
+
+    private static final String ATTRIBUTE = StaleResponses.class.getName() + ".STALE";
+
+
+    private StaleResponses() {
+    }
+
+
+    // No-op outside of a request i.e. in the background refresh or in a worker thread of the batch lookup
+    public static void markStale() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes != null) {
+            attributes.setAttribute(ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+
+    public static boolean isStale() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes != null && Boolean.TRUE.equals(attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+    }
+}
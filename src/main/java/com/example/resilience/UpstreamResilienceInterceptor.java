@@ -0,0 +1,178 @@
+package com.example.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+
+// Isolates the calls of the RestTemplate to each upstream i.e. Fake Store API and User Service
+//   Bulkhead        -> at most maxConcurrentCalls calls to an upstream at the same time, so a slow upstream can't take all the threads
+//   Circuit breaker -> once too many calls fail or are slow the upstream isn't called at all for a while, calls fail right away
+// Both throw (BulkheadFullException, CallNotPermittedException) instead of calling the upstream, the services then fall back to the stale cache
+// Calls to any other host i.e. the JWK set of the Authorization Server are passed through
+// It guards every call RetryingHedgingInterceptor sends, so each retry and hedged call takes a permit of its own
+// The permit and the call of the circuit breaker last until the response is closed, which RestTemplate does once it has read the body,
+// so a slow or broken body counts against the upstream and the bulkhead bounds the connections really in use
+
+public class UpstreamResilienceInterceptor implements ClientHttpRequestInterceptor {
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+
+    // host:port of an upstream -> name of its circuit breaker and bulkhead i.e. resilience4j.circuitbreaker.instances.{name}
+    private final Map<String, String> instances;
+
+
+    public UpstreamResilienceInterceptor(CircuitBreakerRegistry circuitBreakerRegistry, BulkheadRegistry bulkheadRegistry, Map<URI, String> instancesByBaseUrl) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+        this.instances = instancesByBaseUrl.entrySet().stream()
+                .collect(Collectors.toMap(entry -> authority(entry.getKey()), Map.Entry::getValue, (first, second) -> first));
+    }
+
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        String name = instances.get(authority(request.getURI()));
+        if(name == null) {
+            return execution.execute(request, body);
+        }
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(name);
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(name);
+        // Waits up to maxWaitDuration for a free slot, then throws BulkheadFullException
+        bulkhead.acquirePermission();
+        try {
+            // Throws CallNotPermittedException while the circuit is open
+            circuitBreaker.acquirePermission();
+        } catch (RuntimeException ex) {
+            bulkhead.onComplete();
+            throw ex;
+        }
+        long start = System.nanoTime();
+        try {
+            return new GuardedResponse(execution.execute(request, body), bulkhead, circuitBreaker, start);
+        } catch (IOException | RuntimeException ex) {
+            // A hedged call aborted because the other call answered first says nothing about the upstream
+            if(CallCancellation.isCurrentCancelled()) {
+                circuitBreaker.releasePermission();
+            } else {
+                circuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, ex);
+            }
+            bulkhead.onComplete();
+            throw ex;
+        }
+    }
+
+
+    private static String authority(URI uri) {
+        int port = uri.getPort();
+        if(port == -1) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+
+    // Hands the permit back and records the call in the circuit breaker when the response is closed, only the first close counts
+    private static final class GuardedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final Bulkhead bulkhead;
+        private final CircuitBreaker circuitBreaker;
+        private final long start;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile IOException bodyFailure;
+
+        GuardedResponse(ClientHttpResponse response, Bulkhead bulkhead, CircuitBreaker circuitBreaker, long start) {
+            this.response = response;
+            this.bulkhead = bulkhead;
+            this.circuitBreaker = circuitBreaker;
+            this.start = start;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        // A failed read of the body i.e. a read timeout is a failed call, like a failed request
+        @Override
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(response.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        return super.read();
+                    } catch (IOException ex) {
+                        bodyFailure = ex;
+                        throw ex;
+                    }
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    try {
+                        return super.read(buffer, offset, length);
+                    } catch (IOException ex) {
+                        bodyFailure = ex;
+                        throw ex;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if(!closed.compareAndSet(false, true)) {
+                return;
+            }
+            long duration = System.nanoTime() - start;
+            Exception failure = bodyFailure;
+            try {
+                // A server error means the upstream is in trouble, client errors i.e. 404 or 401 are answers to the request
+                HttpStatusCode status = response.getStatusCode();
+                if(failure == null && status.is5xxServerError()) {
+                    failure = new HttpServerErrorException(status);
+                }
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            try {
+                response.close();
+            } finally {
+                if(failure != null) {
+                    circuitBreaker.onError(duration, TimeUnit.NANOSECONDS, failure);
+                } else {
+                    circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+                }
+                bulkhead.onComplete();
+            }
+        }
+    }
+}
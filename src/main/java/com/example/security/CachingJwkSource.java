@@ -0,0 +1,103 @@
+package com.example.security;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestOperations;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+// Source of the public keys of the Authorization Server used to verify the signature of the tokens
+// The JWK set is kept in memory and fetched again in the background every refreshInterval, so no token waits for the Authorization Server
+// When a fetch fails the last known keys are kept, so tokens are still verified while the Authorization Server is down or slow
+// A token signed with an unknown key (key rotation) triggers a fetch right away, at most once every minRefreshInterval
+
+public class CachingJwkSource implements JWKSource<SecurityContext>, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingJwkSource.class);
+
+    private final RestOperations restOperations;
+    private final String jwkSetUri;
+    private final long minRefreshIntervalNanos;
+    private final ScheduledExecutorService refresher;
+
+    private final AtomicReference<JWKSet> jwkSet = new AtomicReference<>();
+    // Time of the last fetch triggered by a token, starts in the past so that the first token can trigger a fetch
+    private final AtomicLong lastOnDemandRefresh;
+
+
+    public CachingJwkSource(RestOperations restOperations, String jwkSetUri, Duration refreshInterval, Duration minRefreshInterval) {
+        this.restOperations = restOperations;
+        this.jwkSetUri = jwkSetUri;
+        this.minRefreshIntervalNanos = minRefreshInterval.toNanos();
+        this.lastOnDemandRefresh = new AtomicLong(System.nanoTime() - minRefreshIntervalNanos);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwk-set-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The first fetch runs in the background as well, so the application starts even when the Authorization Server is down
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+        JWKSet current = jwkSet.get();
+        List<JWK> keys = current == null ? List.of() : jwkSelector.select(current);
+        if(!keys.isEmpty()) {
+            return keys;
+        }
+        // Unknown key or no keys fetched yet, fetch now unless another token did so within minRefreshInterval
+        long last = lastOnDemandRefresh.get();
+        long now = System.nanoTime();
+        if(now - last >= minRefreshIntervalNanos && lastOnDemandRefresh.compareAndSet(last, now)) {
+            try {
+                current = refresh();
+            } catch (RuntimeException | ParseException ex) {
+                if(current == null) {
+                    throw new KeySourceException("Could not fetch the JWK set from " + jwkSetUri, ex);
+                }
+                log.warn("Could not fetch the JWK set from {}, using the last known keys: {}", jwkSetUri, ex.toString());
+            }
+        }
+        return current == null ? List.of() : jwkSelector.select(current);
+    }
+
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException | ParseException ex) {
+            // Keep the last known keys, the next scheduled refresh tries again
+            log.warn("Could not fetch the JWK set from {}, using the last known keys: {}", jwkSetUri, ex.toString());
+        }
+    }
+
+
+    private JWKSet refresh() throws ParseException {
+        String response = restOperations.getForObject(jwkSetUri, String.class);
+        if(response == null) {
+            throw new IllegalStateException("Empty JWK set response");
+        }
+        JWKSet fetched = JWKSet.parse(response);
+        jwkSet.set(fetched);
+        return fetched;
+    }
+
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
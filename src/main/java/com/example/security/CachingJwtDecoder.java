@@ -0,0 +1,80 @@
+package com.example.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import java.time.Duration;
+import java.time.Instant;
+
+
+// Keeps the decoded and validated tokens until they expire, so a client sending the same token on every request
+// pays the signature verification and claim validation only once
+// Tokens are kept as SHA-256 hashes and only tokens which passed the validation of the delegate are cached
+
+public class CachingJwtDecoder implements JwtDecoder {
+
+    private final JwtDecoder delegate;
+    private final Cache<String, Jwt> decodedTokens;
+    private final Timer hitTimer;
+    private final Timer missTimer;
+
+
+    public CachingJwtDecoder(JwtDecoder delegate, long maximumSize, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.decodedTokens = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, Jwt>() {
+                    @Override
+                    public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+                        return untilExpiry(jwt).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return untilExpiry(jwt).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        // Decode time split by whether the token was already decoded i.e. product.auth.jwt.decode{cache=miss}
+        this.hitTimer = Timer.builder("product.auth.jwt.decode").tag("cache", "hit").register(meterRegistry);
+        this.missTimer = Timer.builder("product.auth.jwt.decode").tag("cache", "miss").register(meterRegistry);
+    }
+
+
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        long start = System.nanoTime();
+        String key = TokenHashes.sha256(token);
+        Jwt jwt = decodedTokens.getIfPresent(key);
+        if(jwt != null) {
+            hitTimer.record(Duration.ofNanos(System.nanoTime() - start));
+            return jwt;
+        }
+        try {
+            // Throws JwtException when the signature or the claims are invalid, such tokens are not cached
+            jwt = delegate.decode(token);
+            if(jwt.getExpiresAt() != null) {
+                decodedTokens.put(key, jwt);
+            }
+            return jwt;
+        } finally {
+            missTimer.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+
+    private static Duration untilExpiry(Jwt jwt) {
+        Duration duration = Duration.between(Instant.now(), jwt.getExpiresAt());
+        return duration.isNegative() ? Duration.ZERO : duration;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+
+// Tokens are kept in the in-process caches as SHA-256 hashes, so a cache never holds a usable token
+// Shared by CachingJwtDecoder and TokenValidationService
+
+public final class TokenHashes {
+
+    private TokenHashes() {
+    }
+
+
+    // Hex encoded SHA-256 of the token
+    public static String sha256(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
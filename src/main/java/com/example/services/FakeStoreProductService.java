@@ -1,26 +1,76 @@
 package com.example.services;
 
+import com.example.cache.HotProductTracker;
+import com.example.cache.ProductCache;
+import com.example.cache.SingleFlight;
+import com.example.catalog.*;
+import com.example.configs.BatchProperties;
+import com.example.configs.UpstreamProperties;
 import com.example.dtos.*;
 import com.example.exceptions.*;
+import com.example.metrics.ServiceMetrics;
 import com.example.models.*;
+import com.example.resilience.StaleResponses;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpMessageConverterExtractor;
 import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 
 @Service
-public class FakeStoreProductService implements ProductService {
+public class FakeStoreProductService implements ProductService, ProductCacheMaintenance {
 
     @Autowired
     private RestTemplate restTemplate;
 
+    // Near cache in front of Redis, see ProductCache
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private ProductCache productCache;
+
+    // Deduplicates concurrent cache misses for the same key, see SingleFlight
+    @Autowired
+    private SingleFlight singleFlight;
+
+    // Counts the requests of each product, the most requested ones are refreshed in the background, see CatalogRefresher
+    @Autowired
+    private HotProductTracker hotProductTracker;
+
+    // Indexes of the cached list of all products, see CatalogSnapshot
+    @Autowired
+    private ProductCatalog productCatalog;
+
+    @Autowired
+    private BatchProperties batchProperties;
+
+    // Base URL of the Fake Store API i.e. https://fakestoreapi.com, pointed at a stub for load tests
+    @Autowired
+    private UpstreamProperties upstreamProperties;
+
+    // Latency of each read method split by cache hit, miss and stale copy, see ServiceMetrics
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    // Reads the array of products of the Fake Store API one product at a time, see fetchProductList
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Task executor of Spring Boot, runs on virtual threads when spring.threads.virtual.enabled=true
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
 
 
     public Product convertFakeStoreProductDtoToProduct(FakeStoreProductDto fakeStoreProductDto) {
@@ -39,67 +89,335 @@ public class FakeStoreProductService implements ProductService {
 
     @Override
     public Product getProductById(long id) throws ProductNotFoundException {
-        // Check if product with the given id is present in Redis, if present then return the product. It is stored in ProductId map with key as "Product_"+id
-        Product product = (Product) redisTemplate.opsForHash().get("ProductId", "Product_"+id);
-        if(product != null) {
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            // Check if product with the given id is present in the near cache or Redis, if present then return the product. It is stored with key as product:v1:id:{id}
+            Product product = productCache.getProduct(id);
+            if(product != null) {
+                cache = ServiceMetrics.HIT;
+            } else {
+                // Else fetch the product from Fake Store API, concurrent misses for the same id share a single call
+                try {
+                    product = singleFlight.execute(productCache.productKey(id), () -> productCache.getProduct(id), () -> fetchProductById(id));
+                } catch (CallNotPermittedException | BulkheadFullException ex) {
+                    cache = ServiceMetrics.STALE;
+                    product = staleOrThrow(productCache.getStaleProduct(id), ex);
+                }
+            }
+            // Only the ids of products which exist are counted, so requests for made up ids don't fill up the counts
+            hotProductTracker.record(id);
             return product;
+        } finally {
+            serviceMetrics.record("getProductById", cache, start);
         }
-        // Else call Fake Store API to get product data with the given id, convert the responseType query parameter to FakeStoreProductDto
-        FakeStoreProductDto response = restTemplate.getForObject("https://fakestoreapi.com/products/"+id, FakeStoreProductDto.class);
+    }
+
+
+    private Product fetchProductById(long id) throws ProductNotFoundException {
+        Product product = loadProductById(id);
+        // If product is not found in Redis then store the product in Redis with key as product:v1:id:{id}, it expires after the product TTL
+        productCache.putProduct(id, product);
+        return product;
+    }
+
+
+    private Product loadProductById(long id) throws ProductNotFoundException {
+        // Call Fake Store API to get product data with the given id, convert the responseType query parameter to FakeStoreProductDto
+        FakeStoreProductDto response = restTemplate.getForObject(fakeStoreUrl("/products/" + id), FakeStoreProductDto.class);
         if(response == null) {
             throw new ProductNotFoundException("Product with id " + id + " not found");
         }
         // Convert response to Product
-        product = convertFakeStoreProductDtoToProduct(response);
-        // If product is not found in Redis then store the product as a value in ProductId map of Redis with key as "Product_"+id
-        redisTemplate.opsForHash().put("ProductId", "Product_"+id, product);
-        return product;
+        return convertFakeStoreProductDtoToProduct(response);
+    }
+
+
+    @Override
+    public CatalogPage getProducts(CatalogQuery query) {
+        // Filter, sort and page the products in memory with the indexes of the catalog, see CatalogSnapshot
+        // The list of all products comes from the cache, only the first request after it expires calls the Fake Store API
+        // Its lookup is recorded in product.service.calls{method=getAllProducts}
+        // A plain page by id which this node hasn't assembled the list for is read straight from the id index in Redis,
+        // so only the products of the page are read instead of the whole catalog
+        if(productCache.getNearAllProducts() == null && isIdPage(query)) {
+            long start = System.nanoTime();
+            CatalogPage page = productCache.getProductPage(query.getOffset(), query.getLimit(), "-id".equals(query.getSort()));
+            if(page != null) {
+                serviceMetrics.record("getProductPage", ServiceMetrics.HIT, start);
+                return page;
+            }
+        }
+        return productCatalog.snapshotOf(getAllProducts()).query(query);
+    }
+
+
+    // A query without filters sorted by id and with a limit, its products are a range of ranks of the id index
+    private static boolean isIdPage(CatalogQuery query) {
+        return query.getCategory() == null && query.getMinPrice() == null && query.getMaxPrice() == null
+                && (query.getSort() == null || "id".equals(query.getSort()) || "-id".equals(query.getSort()))
+                && query.getOffset() >= 0 && query.getLimit() != null && query.getLimit() > 0;
+    }
+
+
+    @Override
+    public BatchProductsDto getProductsByIds(List<Long> ids) {
+        long start = System.nanoTime();
+        // Each id costs at most one call to the Fake Store API, so the size of a request is limited
+        if(ids.size() > batchProperties.getMaxIds()) {
+            throw new IllegalArgumentException("At most " + batchProperties.getMaxIds() + " ids are allowed in one request");
+        }
+        // Repeated ids are looked up only once
+        Set<Long> uniqueIds = new LinkedHashSet<>(ids);
+        // One lookup for all the ids, the near cache first and then a single MGET to Redis for the rest
+        Map<Long, Product> products = new ConcurrentHashMap<>(productCache.getProducts(uniqueIds));
+        Map<Long, String> errors = new ConcurrentHashMap<>();
+        Map<Long, Product> fetched = new ConcurrentHashMap<>();
+
+        // Fetch the misses from Fake Store API concurrently, at most parallelism calls at the same time
+        AtomicBoolean anyStale = new AtomicBoolean();
+        Queue<Long> misses = new ConcurrentLinkedQueue<>();
+        uniqueIds.stream().filter(id -> !products.containsKey(id)).forEach(misses::add);
+        int workers = Math.min(batchProperties.getParallelism(), misses.size());
+        // A batch counts as a hit only when every id was found in the cache
+        String cache = workers == 0 ? ServiceMetrics.HIT : ServiceMetrics.MISS;
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for(int i = 0; i < workers; i++) {
+            // Every worker takes the next missing id until none is left
+            futures.add(taskExecutor.submitCompletable(() -> {
+                Long id;
+                while((id = misses.poll()) != null) {
+                    long productId = id;
+                    try {
+                        // Concurrent misses for the same id by other requests share a single call
+                        Product product = singleFlight.execute(productCache.productKey(productId), () -> productCache.getProduct(productId), () -> loadProductById(productId));
+                        products.put(productId, product);
+                        fetched.put(productId, product);
+                    } catch (CallNotPermittedException | BulkheadFullException ex) {
+                        // Fake Store API can't be called, serve the stale copy if there is one
+                        Product stale = productCache.getStaleProduct(productId);
+                        if(stale != null) {
+                            products.put(productId, stale);
+                            anyStale.set(true);
+                        } else {
+                            errors.put(productId, ex.getMessage());
+                        }
+                    } catch (Exception ex) {
+                        // One failed id doesn't fail the whole request, the error is returned along with the products found
+                        errors.put(productId, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+                    }
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        // Only the ids which were found are counted, like in getProductById
+        products.keySet().forEach(hotProductTracker::record);
+        // The workers run outside of the request, so the request is marked here
+        if(anyStale.get()) {
+            StaleResponses.markStale();
+            cache = ServiceMetrics.STALE;
+        }
+
+        // Store all the fetched products in Redis with one pipelined write
+        productCache.putProducts(fetched);
+
+        // Products and errors in the order of the requested ids
+        BatchProductsDto batchProductsDto = new BatchProductsDto();
+        for(Long id : uniqueIds) {
+            if(products.containsKey(id)) {
+                batchProductsDto.getProducts().add(products.get(id));
+            } else {
+                batchProductsDto.getErrors().put(id, errors.get(id));
+            }
+        }
+        serviceMetrics.record("getProductsByIds", cache, start);
+        return batchProductsDto;
     }
 
 
     @Override
     public List<Product> getAllProducts() {
-        // Check if list of all products are present in Redis, if present then return the products. It is stored in Products map with key as AllProducts
-        List<Product> products = (List<Product>)redisTemplate.opsForHash().get("Products", "AllProducts");
-        if(products != null) {
-            return products;
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            // Check if list of all products are present in the near cache or Redis, if present then return the products. It is read from the id index product:v1:catalog:ids and the products
+            List<Product> products = productCache.getAllProducts();
+            if(products != null) {
+                cache = ServiceMetrics.HIT;
+                return products;
+            }
+            // Else fetch all the products from Fake Store API, concurrent misses share a single call
+            try {
+                return singleFlight.execute(productCache.catalogKey(), productCache::getAllProducts, this::fetchAllProducts);
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                cache = ServiceMetrics.STALE;
+                return staleOrThrow(productCache.getStaleAllProducts(), ex);
+            }
+        } finally {
+            serviceMetrics.record("getAllProducts", cache, start);
         }
-        // Else call Fake Store API to get all products, convert the responseType to Array of FakeStoreProductDto because if you use List then Generics are erased at runtime
-        FakeStoreProductDto[] responseList = restTemplate.getForObject("https://fakestoreapi.com/products", FakeStoreProductDto[].class);
+    }
+
+
+    private List<Product> fetchAllProducts() {
+        // Call Fake Store API to get all products, convert the responseType to Array of FakeStoreProductDto because if you use List then Generics are erased at runtime
+        FakeStoreProductDto[] responseList = restTemplate.getForObject(fakeStoreUrl("/products"), FakeStoreProductDto[].class);
 
         // To get all the products along with the status code using ResponseEntity
-        // ResponseEntity<FakeStoreProductDto[]> responseList = restTemplate.getForEntity("https://fakestoreapi.com/products", FakeStoreProductDto[].class);
+        // ResponseEntity<FakeStoreProductDto[]> responseList = restTemplate.getForEntity(fakeStoreUrl("/products"), FakeStoreProductDto[].class);
 
         if(responseList == null || responseList.length == 0) {
             throw new NullPointerException("No products found");
         }
         // Convert all elements of responseList to List of Product
-        products = new ArrayList<>();
+        List<Product> products = new ArrayList<>();
         for(FakeStoreProductDto response:responseList) {
             products.add(convertFakeStoreProductDtoToProduct(response));
         }
-        // If products are not found in Redis then store the products as a value in Products map of Redis with key as AllProducts
-        redisTemplate.opsForHash().put("Products", "AllProducts", products);
+        // If products are not found in Redis then store each product under its own key and their ids in product:v1:catalog:ids, it expires after the catalog TTL
+        productCache.putAllProducts(products);
+        return products;
+    }
+
+
+    // Passes all the products to the sink one by one instead of returning the list, used to stream the response
+    // On a cache miss each product is passed on as soon as it is read from the response of the Fake Store API
+    @Override
+    public void streamAllProducts(Consumer<Product> sink) {
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            List<Product> products = productCache.getAllProducts();
+            if(products != null) {
+                cache = ServiceMetrics.HIT;
+                products.forEach(sink);
+                return;
+            }
+            StreamingSink streamingSink = new StreamingSink(sink);
+            try {
+                products = singleFlight.execute(productCache.catalogKey(), productCache::getAllProducts, () -> fetchAllProducts(streamingSink));
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                cache = ServiceMetrics.STALE;
+                products = staleOrThrow(productCache.getStaleAllProducts(), ex);
+            }
+            streamingSink.complete(products);
+        } finally {
+            serviceMetrics.record("streamAllProducts", cache, start);
+        }
+    }
+
+
+    private List<Product> fetchAllProducts(Consumer<Product> sink) {
+        List<Product> products = fetchProductList(fakeStoreUrl("/products"), sink);
+        if(products.isEmpty()) {
+            throw new NullPointerException("No products found");
+        }
+        productCache.putAllProducts(products);
         return products;
     }
 
 
+    // Reloads the list of all products from Fake Store API even if it is cached, used by CatalogRefresher
+    @Override
+    public List<Product> refreshAllProducts() {
+        // No cache lookup, but requests missing the cache meanwhile still share this call
+        return singleFlight.execute(productCache.catalogKey(), () -> null, this::fetchAllProducts);
+    }
+
+
+    // Writes fresh copies of the given products to the cache in one pipelined write, taken from the given list of all products
+    // Products missing from the list are left to expire, the next request for them fetches them as usual
+    @Override
+    public void refreshProducts(Collection<Long> ids, List<Product> allProducts) {
+        CatalogSnapshot snapshot = productCatalog.snapshotOf(allProducts);
+        Map<Long, Product> products = new HashMap<>();
+        for(Long id : ids) {
+            Product product = snapshot.getProductById(id);
+            if(product != null) {
+                products.put(id, product);
+            }
+        }
+        productCache.putProducts(products);
+    }
+
+
     @Override
     public List<String> getAllCategories() {
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            // Check if list of categories is present in the near cache or Redis, if present then return the categories. It is stored with key as product:v1:categories
+            List<String> categories = productCache.getAllCategories();
+            if(categories != null) {
+                cache = ServiceMetrics.HIT;
+                return categories;
+            }
+            // Else fetch all the categories from Fake Store API, concurrent misses share a single call
+            try {
+                return singleFlight.execute(productCache.categoriesKey(), productCache::getAllCategories, this::fetchAllCategories);
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                cache = ServiceMetrics.STALE;
+                return staleOrThrow(productCache.getStaleAllCategories(), ex);
+            }
+        } finally {
+            serviceMetrics.record("getAllCategories", cache, start);
+        }
+    }
+
+
+    private List<String> fetchAllCategories() {
         // Call Fake Store API to get all categories, convert the responseType to Array of String because if you use List then Generics are erased at runtime
-        String[] responseList = restTemplate.getForObject("https://fakestoreapi.com/products/categories", String[].class);
+        String[] responseList = restTemplate.getForObject(fakeStoreUrl("/products/categories"), String[].class);
         if(responseList == null || responseList.length == 0) {
             throw new NullPointerException("No categories found");
         }
         // Convert responseList to List of String
-        return Arrays.asList(responseList);
+        List<String> categories = Arrays.asList(responseList);
+        // Categories almost never change, store them in Redis with key as product:v1:categories, it expires after the categories TTL
+        productCache.putAllCategories(categories);
+        return categories;
     }
 
 
     @Override
     public List<Product> getProductsByCategory(String category) {
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            // If the list of all products is cached then pick the products of the category from it, no call to Fake Store API is needed
+            // The products are grouped by category once per catalog, see CatalogSnapshot
+            List<Product> allProducts = productCache.getAllProducts();
+            if(allProducts != null) {
+                cache = ServiceMetrics.HIT;
+                List<Product> products = productCatalog.snapshotOf(allProducts).getProductsByCategory(category);
+                if(products.isEmpty()) {
+                    throw new NullPointerException("No products found for category " + category);
+                }
+                return products;
+            }
+            // Else check if products of the category are present in the near cache or Redis. It is stored with key as product:v1:category:{category}
+            List<Product> products = productCache.getProductsByCategory(category);
+            if(products != null) {
+                cache = ServiceMetrics.HIT;
+                return products;
+            }
+            // Else fetch the products of the category from Fake Store API, concurrent misses for the same category share a single call
+            try {
+                return singleFlight.execute(productCache.categoryKey(category), () -> productCache.getProductsByCategory(category), () -> fetchProductsByCategory(category));
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                cache = ServiceMetrics.STALE;
+                return staleOrThrow(productCache.getStaleProductsByCategory(category), ex);
+            }
+        } finally {
+            serviceMetrics.record("getProductsByCategory", cache, start);
+        }
+    }
+
+
+    private List<Product> fetchProductsByCategory(String category) {
         // Call Fake Store API to get all products of the given category, convert the responseType to Array of FakeStoreProductDto because if you use List then Generics are erased at runtime
-        FakeStoreProductDto[] responseList = restTemplate.getForObject("https://fakestoreapi.com/products/category/"+category, FakeStoreProductDto[].class);
+        FakeStoreProductDto[] responseList = restTemplate.getForObject(fakeStoreUrl("/products/category/" + category), FakeStoreProductDto[].class);
         if(responseList == null || responseList.length == 0) {
             throw new NullPointerException("No products found for category " + category);
         }
@@ -108,48 +426,195 @@ public class FakeStoreProductService implements ProductService {
         for(FakeStoreProductDto response:responseList) {
             products.add(convertFakeStoreProductDtoToProduct(response));
         }
+        // Store the products in Redis with key as product:v1:category:{category}, it expires after the category TTL
+        productCache.putProductsByCategory(category, products);
         return products;
     }
 
 
+    // Passes the products of the given category to the sink one by one, see streamAllProducts
+    @Override
+    public void streamProductsByCategory(String category, Consumer<Product> sink) {
+        long start = System.nanoTime();
+        String cache = ServiceMetrics.MISS;
+        try {
+            // The cached lists are already in memory, streaming them only saves the buffered response
+            List<Product> allProducts = productCache.getAllProducts();
+            List<Product> products = allProducts != null ? productCatalog.snapshotOf(allProducts).getProductsByCategory(category) : productCache.getProductsByCategory(category);
+            if(products != null) {
+                cache = ServiceMetrics.HIT;
+                if(products.isEmpty()) {
+                    throw new NullPointerException("No products found for category " + category);
+                }
+                products.forEach(sink);
+                return;
+            }
+            StreamingSink streamingSink = new StreamingSink(sink);
+            try {
+                products = singleFlight.execute(productCache.categoryKey(category), () -> productCache.getProductsByCategory(category), () -> fetchProductsByCategory(category, streamingSink));
+            } catch (CallNotPermittedException | BulkheadFullException ex) {
+                cache = ServiceMetrics.STALE;
+                products = staleOrThrow(productCache.getStaleProductsByCategory(category), ex);
+            }
+            streamingSink.complete(products);
+        } finally {
+            serviceMetrics.record("streamProductsByCategory", cache, start);
+        }
+    }
+
+
+    private List<Product> fetchProductsByCategory(String category, Consumer<Product> sink) {
+        List<Product> products = fetchProductList(fakeStoreUrl("/products/category/" + category), sink);
+        if(products.isEmpty()) {
+            throw new NullPointerException("No products found for category " + category);
+        }
+        productCache.putProductsByCategory(category, products);
+        return products;
+    }
+
+
+    // Reads the array of products returned by the Fake Store API one element at a time instead of into a FakeStoreProductDto[],
+    // every product is passed to the sink as soon as it is read, so the first products are sent before the last ones have arrived
+    // The products are still collected into the list which is written to the cache
+    private List<Product> fetchProductList(String url, Consumer<Product> sink) {
+        return restTemplate.execute(url, HttpMethod.GET, restTemplate.acceptHeaderRequestCallback(FakeStoreProductDto[].class), response -> {
+            List<Product> products = new ArrayList<>();
+            try (JsonParser parser = objectMapper.getFactory().createParser(response.getBody())) {
+                // An empty body or anything else than an array has no products
+                if(parser.nextToken() != JsonToken.START_ARRAY) {
+                    return products;
+                }
+                while(parser.nextToken() == JsonToken.START_OBJECT) {
+                    Product product = convertFakeStoreProductDtoToProduct(objectMapper.readValue(parser, FakeStoreProductDto.class));
+                    products.add(product);
+                    sink.accept(product);
+                }
+            }
+            return products;
+        });
+    }
+
+
+    // Sink of a streaming call which is also the loader of a SingleFlight call, so its failures must not fail the other requests waiting on the same call
+    //   A client which has gone away makes the sink throw, the rest of the products are still read and cached and the failure is thrown at the end
+    //   Products which never went through the sink i.e. the result of another request's call or a stale copy are passed on at the end
+    private static class StreamingSink implements Consumer<Product> {
+
+        private final Consumer<Product> sink;
+        private boolean used;
+        private RuntimeException failure;
+
+
+        StreamingSink(Consumer<Product> sink) {
+            this.sink = sink;
+        }
+
+
+        @Override
+        public void accept(Product product) {
+            used = true;
+            if(failure != null) {
+                return;
+            }
+            try {
+                sink.accept(product);
+            } catch (RuntimeException ex) {
+                failure = ex;
+            }
+        }
+
+
+        void complete(List<Product> products) {
+            if(!used) {
+                products.forEach(sink);
+            }
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+
+    // Fake Store API can't be called because its circuit breaker is open or its bulkhead is full, see UpstreamResilienceInterceptor
+    // Serve the last known value with the X-Cache-Stale header, else pass the exception on which is answered with SERVICE_UNAVAILABLE
+    private static <T> T staleOrThrow(T stale, RuntimeException ex) {
+        if(stale == null) {
+            throw ex;
+        }
+        StaleResponses.markStale();
+        return stale;
+    }
+
+
+    // Drops the cached lists which contain the given products i.e. the lists of their categories and the assembled list of all products,
+    // the list of all products itself is kept as it is read from the products, which the caller has already written or dropped
+    private void evictProductLists(Product... products) {
+        Set<String> categories = new HashSet<>();
+        for(Product product : products) {
+            if(product != null && product.getCategory() != null && product.getCategory().getDescription() != null) {
+                categories.add(product.getCategory().getDescription());
+            }
+        }
+        // One round trip for all the lists instead of one per list
+        productCache.evictProductLists(categories);
+    }
+
+
     @Override
     public Product replaceProduct(long id, FakeStoreProductDto fakeStoreProductDto) {
         // Copied this part of code from RestTemplate class : <T> T patchForObject(String url, @Nullable Object request, Class<T> responseType)
         // Just replace the returnType with FakeStoreProductDto.class and call all the methods using restTemplate
         // put() method in restTemplate doesn't return any data, but we need to return the updated Product. If we use put() method then we need to call getForObject() method again to get the updated data
         // Therefore for one request there will be 2 API calls made which will increase the latency. Hence, just copy the code and do the modifications as required
+        // The cached product tells the category the product had before, its list of products has to be dropped as well
+        Product previous = productCache.getProduct(id);
         RequestCallback requestCallback = restTemplate.httpEntityCallback(fakeStoreProductDto, FakeStoreProductDto.class);
         HttpMessageConverterExtractor<FakeStoreProductDto> responseExtractor = new HttpMessageConverterExtractor<>(FakeStoreProductDto.class, restTemplate.getMessageConverters());
-        FakeStoreProductDto response = restTemplate.execute("https://fakestoreapi.com/products/"+id, HttpMethod.PUT, requestCallback, responseExtractor);
+        FakeStoreProductDto response = restTemplate.execute(fakeStoreUrl("/products/" + id), HttpMethod.PUT, requestCallback, responseExtractor);
         if(response == null) {
             return null;
         }
         // Convert response to Product
-        return convertFakeStoreProductDtoToProduct(response);
+        Product product = convertFakeStoreProductDtoToProduct(response);
+        // Write the new product to the cache and drop the lists of products as they still contain the old product
+        productCache.putProduct(id, product);
+        evictProductLists(previous, product);
+        return product;
     }
 
 
     @Override
     public Product updateProduct(long id, FakeStoreProductDto fakeStoreProductDto) {
+        // The cached product tells the category the product had before, its list of products has to be dropped as well
+        Product previous = productCache.getProduct(id);
         // Call Fake Store API to update product with the given id and given dto data, convert the responseType query parameter to FakeStoreProductDto
-        FakeStoreProductDto response = restTemplate.patchForObject("https://fakestoreapi.com/products/"+id, fakeStoreProductDto, FakeStoreProductDto.class);
+        FakeStoreProductDto response = restTemplate.patchForObject(fakeStoreUrl("/products/" + id), fakeStoreProductDto, FakeStoreProductDto.class);
         if(response == null) {
             return null;
         }
         // Convert response to Product
-        return convertFakeStoreProductDtoToProduct(response);
+        Product product = convertFakeStoreProductDtoToProduct(response);
+        // Write the updated product to the cache and drop the lists of products as they still contain the old product
+        productCache.putProduct(id, product);
+        evictProductLists(previous, product);
+        return product;
     }
 
 
     @Override
     public Product createProduct(FakeStoreProductDto fakeStoreProductDto) {
         // Call Fake Store API to create a new product with the given dto data, convert the responseType to FakeStoreProductDto
-        FakeStoreProductDto response = restTemplate.postForObject("https://fakestoreapi.com/products", fakeStoreProductDto, FakeStoreProductDto.class);
+        FakeStoreProductDto response = restTemplate.postForObject(fakeStoreUrl("/products"), fakeStoreProductDto, FakeStoreProductDto.class);
         if(response == null) {
             return null;
         }
         // Convert response to Product
-        return convertFakeStoreProductDtoToProduct(response);
+        Product product = convertFakeStoreProductDtoToProduct(response);
+        // Write the new product to the cache, add it to the cached list of all products and drop the list of its category as it doesn't contain the new product
+        productCache.putProduct(product.getId(), product);
+        productCache.addToAllProducts(product.getId());
+        evictProductLists(product);
+        return product;
     }
 
 
@@ -159,13 +624,97 @@ public class FakeStoreProductService implements ProductService {
         // Just replace the returnType with FakeStoreProductDto.class and call all the methods using restTemplate
         // delete() method in restTemplate doesn't return any data, but we need to return the deleted Product. If we use delete() method then then we won't be able to return the deleted Product.
         // Hence, just copy the code and do the modifications as required
+        // The cached product tells the category whose list of products has to be dropped
+        Product previous = productCache.getProduct(id);
         RequestCallback requestCallback = restTemplate.acceptHeaderRequestCallback(FakeStoreProductDto.class);
         HttpMessageConverterExtractor<FakeStoreProductDto> responseExtractor = new HttpMessageConverterExtractor<>(FakeStoreProductDto.class, restTemplate.getMessageConverters());
-        FakeStoreProductDto response = restTemplate.execute("https://fakestoreapi.com/products/"+id, HttpMethod.DELETE, requestCallback, responseExtractor);
+        FakeStoreProductDto response = restTemplate.execute(fakeStoreUrl("/products/" + id), HttpMethod.DELETE, requestCallback, responseExtractor);
+        // Drop the product and the lists of products from the cache, even if no data is returned the product might be deleted
+        productCache.deleteProducts(List.of(id));
         if(response == null) {
+            evictProductLists(previous);
             return null;
         }
         // Convert response to Product
-        return convertFakeStoreProductDtoToProduct(response);
+        Product product = convertFakeStoreProductDtoToProduct(response);
+        evictProductLists(previous, product);
+        return product;
+    }
+
+
+    // Writes the expected results of accepted mutations to the cache before they are sent to the Fake Store API, see ProductMutationService
+    // Fake Store API answers a replace with the product it was sent, so that product is what the cache holds afterwards anyway
+    // An update only holds the changed fields and a price can't be told apart from an unchanged one, so the product is dropped instead
+    // All the mutations of a request cost one lookup, one pipelined write, one delete of the products and one delete of the lists
+    @Override
+    public void reflectMutations(List<ProductMutationDto> mutations) {
+        Set<Long> ids = new LinkedHashSet<>();
+        mutations.stream().map(ProductMutationDto::getId).filter(Objects::nonNull).forEach(ids::add);
+        // The cached products tell the categories the products had before, their lists have to be dropped as well
+        Map<Long, Product> previous = productCache.getProducts(ids);
+        Map<Long, Product> written = new LinkedHashMap<>();
+        Set<Long> evicted = new LinkedHashSet<>();
+        // The category an update moves a product to, its list has to be dropped as well
+        List<Product> patched = new ArrayList<>();
+        for(ProductMutationDto mutation : mutations) {
+            switch(mutation.getOperation()) {
+                case REPLACE -> {
+                    Product product = convertFakeStoreProductDtoToProduct(mutation.getProduct());
+                    product.setId(mutation.getId());
+                    written.put(mutation.getId(), product);
+                    evicted.remove(mutation.getId());
+                }
+                case UPDATE -> {
+                    patched.add(convertFakeStoreProductDtoToProduct(mutation.getProduct()));
+                    written.remove(mutation.getId());
+                    evicted.add(mutation.getId());
+                }
+                case DELETE -> {
+                    written.remove(mutation.getId());
+                    evicted.add(mutation.getId());
+                }
+                // The id of a new product is only known once the Fake Store API has created it
+                case CREATE -> {
+                }
+            }
+        }
+        productCache.putProducts(written);
+        // The ids stay in the id index until the Fake Store API has deleted the products, see deleteProduct,
+        // so a failed delete leaves the list of all products to be fetched again instead of losing a product which still exists
+        productCache.evictProducts(evicted);
+        List<Product> changed = new ArrayList<>(previous.values());
+        changed.addAll(written.values());
+        changed.addAll(patched);
+        evictProductLists(changed.toArray(new Product[0]));
+    }
+
+
+    // Sends an accepted mutation to the Fake Store API, the cache is written as for a single request
+    // A failed mutation drops the product from the cache, which would else keep the result written by reflectMutation,
+    // an empty answer of the Fake Store API to anything but a delete is a failure as well
+    @Override
+    public Product applyMutation(ProductMutationDto mutation) {
+        try {
+            Product product = switch(mutation.getOperation()) {
+                case CREATE -> createProduct(mutation.getProduct());
+                case REPLACE -> replaceProduct(mutation.getId(), mutation.getProduct());
+                case UPDATE -> updateProduct(mutation.getId(), mutation.getProduct());
+                case DELETE -> deleteProduct(mutation.getId());
+            };
+            if(product == null && mutation.getOperation() != ProductMutationDto.Operation.DELETE) {
+                throw new IllegalStateException("Fake Store API returned no product");
+            }
+            return product;
+        } catch (RuntimeException ex) {
+            if(mutation.getId() != null) {
+                productCache.evictProduct(mutation.getId());
+            }
+            throw ex;
+        }
+    }
+
+
+    private String fakeStoreUrl(String path) {
+        return upstreamProperties.getFakeStoreBaseUrl() + path;
     }
 }
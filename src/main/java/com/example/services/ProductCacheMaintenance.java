@@ -0,0 +1,21 @@
+package com.example.services;
+
+import com.example.dtos.ProductMutationDto;
+import com.example.models.*;
+import java.util.*;
+
+
+// Upkeep of the cached products which is not part of the API of ProductService, only called by the background jobs
+// i.e. CatalogRefresher, CacheWarmUp and ProductMutationService, implemented by FakeStoreProductService next to the cache it keeps
+
+public interface ProductCacheMaintenance {
+
+    List<Product> refreshAllProducts();
+
+    void refreshProducts(Collection<Long> ids, List<Product> allProducts);
+
+    void reflectMutations(List<ProductMutationDto> mutations);
+
+    Product applyMutation(ProductMutationDto mutation);
+
+}
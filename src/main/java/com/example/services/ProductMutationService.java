@@ -0,0 +1,339 @@
+package com.example.services;
+
+import com.example.configs.MutationProperties;
+import com.example.configs.ProductCacheProperties;
+import com.example.dtos.MutationStatusDto;
+import com.example.dtos.ProductMutationDto;
+import com.example.models.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+// Applies the mutations of POST /products/bulk to the Fake Store API in the background (write-behind)
+//   Accept -> the idempotency key is claimed in Redis, the mutation is queued and its expected result is written to the cache at once
+//   Apply  -> a dispatcher thread takes the queued mutations in batches and applies each batch with at most parallelism calls at the same time
+// so an import of many products is bounded by parallelism instead of by one round trip per product
+
+// The status of every mutation is kept in Redis under product:v1:mutation:{idempotencyKey} i.e. PENDING, APPLIED|{id} or FAILED|{error}
+// A key which is already there is not queued again, so a client retrying a whole import doesn't apply a mutation twice,
+// on any node of the cluster. Mutations still queued when the node dies stay PENDING until their status expires
+
+@Service
+public class ProductMutationService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductMutationService.class);
+
+    private static final String PENDING = "PENDING";
+    private static final String APPLIED = "APPLIED";
+    private static final String FAILED = "FAILED";
+    private static final String SEPARATOR = "|";
+
+    @Autowired
+    private ProductCacheMaintenance productCacheMaintenance;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private MutationProperties properties;
+
+    @Autowired
+    private ProductCacheProperties cacheProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Task executor of Spring Boot, runs on virtual threads when spring.threads.virtual.enabled=true
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    private BlockingQueue<QueuedMutation> queue;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    private Counter applied;
+    private Counter failed;
+    private Counter duplicates;
+    private Counter rejected;
+
+
+    @PostConstruct
+    public void start() {
+        // product.mutations{result=applied|failed|duplicate|rejected} and the number of mutations waiting in product.mutations.queued
+        applied = meterRegistry.counter("product.mutations", "result", "applied");
+        failed = meterRegistry.counter("product.mutations", "result", "failed");
+        duplicates = meterRegistry.counter("product.mutations", "result", "duplicate");
+        rejected = meterRegistry.counter("product.mutations", "result", "rejected");
+        queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+        meterRegistry.gaugeCollectionSize("product.mutations.queued", List.of(), queue);
+
+        running = true;
+        dispatcher = new Thread(this::dispatch, "product-mutations");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+
+    // Stops accepting mutations and waits for the queued ones to be applied
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        dispatcher.join(properties.getShutdownTimeout().toMillis());
+        if(!queue.isEmpty()) {
+            log.warn("{} product mutation(s) were not applied before shutdown, their status stays {}", queue.size(), PENDING);
+        }
+    }
+
+
+    // Accepts the given mutations and returns at once with the status of each, in the order of the request
+    // An invalid mutation rejects the whole request with IllegalArgumentException before any of them is accepted
+    // However many mutations a request holds, accepting them costs a few round trips to Redis: the keys are claimed in one pipeline,
+    // the statuses of the duplicates are read with one MGET and the cache is written once for all of them
+    public List<MutationStatusDto> submit(List<ProductMutationDto> mutations) {
+        if(mutations.size() > properties.getMaxItems()) {
+            throw new IllegalArgumentException("At most " + properties.getMaxItems() + " mutations are allowed in one request");
+        }
+        mutations.forEach(ProductMutationService::validate);
+        for(ProductMutationDto mutation : mutations) {
+            if(mutation.getIdempotencyKey() == null || mutation.getIdempotencyKey().isBlank()) {
+                mutation.setIdempotencyKey(UUID.randomUUID().toString());
+            }
+        }
+
+        // SET NX of every key, only the first mutation with a key gets it, on any node
+        List<Object> claims = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                mutations.forEach(mutation -> stringOperations.opsForValue().setIfAbsent(statusKey(mutation.getIdempotencyKey()), PENDING, properties.getIdempotencyTtl()));
+                return null;
+            }
+        });
+        // A key repeated within the request is claimed by its first mutation only
+        Set<String> claimed = new HashSet<>();
+        boolean[] owner = new boolean[mutations.size()];
+        List<String> duplicateKeys = new ArrayList<>();
+        for(int i = 0; i < mutations.size(); i++) {
+            String key = mutations.get(i).getIdempotencyKey();
+            owner[i] = Boolean.TRUE.equals(claims.get(i)) && claimed.add(key);
+            if(!owner[i]) {
+                duplicateKeys.add(key);
+            }
+        }
+        Map<String, String> duplicateValues = new HashMap<>();
+        if(!duplicateKeys.isEmpty()) {
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(duplicateKeys.stream().map(this::statusKey).toList());
+            for(int i = 0; i < duplicateKeys.size(); i++) {
+                // The status expired between the two calls, the first mutation is long done
+                duplicateValues.put(duplicateKeys.get(i), values != null && values.get(i) != null ? values.get(i) : APPLIED);
+            }
+        }
+
+        List<MutationStatusDto> statuses = new ArrayList<>();
+        List<ProductMutationDto> accepted = new ArrayList<>();
+        List<String> released = new ArrayList<>();
+        for(int i = 0; i < mutations.size(); i++) {
+            ProductMutationDto mutation = mutations.get(i);
+            String key = mutation.getIdempotencyKey();
+            if(!owner[i]) {
+                duplicates.increment();
+                MutationStatusDto status = toStatus(key, duplicateValues.get(key));
+                status.setDuplicate(true);
+                statuses.add(status);
+            } else if(running && queue.offer(new QueuedMutation(mutation))) {
+                accepted.add(mutation);
+                statuses.add(toStatus(key, PENDING));
+            } else {
+                released.add(key);
+                rejected.increment();
+                MutationStatusDto status = new MutationStatusDto();
+                status.setIdempotencyKey(key);
+                status.setStatus(MutationStatusDto.Status.REJECTED);
+                status.setError("Too many mutations are waiting to be applied, please send it again later");
+                statuses.add(status);
+            }
+        }
+        if(!released.isEmpty()) {
+            // Give the keys back, so that the client can send the mutations again later
+            stringRedisTemplate.delete(released.stream().map(this::statusKey).toList());
+        }
+        if(accepted.isEmpty()) {
+            return statuses;
+        }
+        try {
+            // Reads of this node see the mutations right away, the other nodes drop their copy through the invalidation message
+            // A mutation applied before this write leaves the same product in the cache, the Fake Store API echoes what it was sent
+            productCacheMaintenance.reflectMutations(accepted);
+        } catch (RuntimeException ex) {
+            // The cache is only ahead of the Fake Store API, the mutations are still applied
+            log.warn("Could not write {} mutation(s) to the cache: {}", accepted.size(), ex.toString());
+        }
+        return statuses;
+    }
+
+
+    // Status of the mutation with the given key, null if the key is unknown or its status has expired
+    public MutationStatusDto getStatus(String idempotencyKey) {
+        String value = stringRedisTemplate.opsForValue().get(statusKey(idempotencyKey));
+        return value == null ? null : toStatus(idempotencyKey, value);
+    }
+
+
+    private void dispatch() {
+        while(running || !queue.isEmpty()) {
+            try {
+                List<QueuedMutation> batch = nextBatch();
+                if(!batch.isEmpty()) {
+                    apply(batch);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                log.warn("Could not apply a batch of product mutations: {}", ex.toString());
+            }
+        }
+    }
+
+
+    // Waits for the first mutation, then up to linger for the batch to fill up
+    private List<QueuedMutation> nextBatch() throws InterruptedException {
+        List<QueuedMutation> batch = new ArrayList<>(properties.getBatchSize());
+        // Wakes up now and then to see whether the service is stopping
+        QueuedMutation first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if(first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + properties.getLinger().toNanos();
+        while(batch.size() < properties.getBatchSize()) {
+            queue.drainTo(batch, properties.getBatchSize() - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if(batch.size() >= properties.getBatchSize() || remaining <= 0) {
+                break;
+            }
+            QueuedMutation next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if(next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return batch;
+    }
+
+
+    // The mutations of the same product are applied one after the other in the order they were accepted,
+    // the mutations of different products are applied concurrently with at most parallelism calls at the same time
+    // The statuses of the whole batch are written to Redis in one pipeline at the end
+    private void apply(List<QueuedMutation> batch) {
+        Map<Object, List<QueuedMutation>> byProduct = new LinkedHashMap<>();
+        for(QueuedMutation queued : batch) {
+            // A new product has no id yet, each create is a group of its own
+            Object group = queued.mutation.getId() != null ? queued.mutation.getId() : queued;
+            byProduct.computeIfAbsent(group, key -> new ArrayList<>()).add(queued);
+        }
+        Queue<List<QueuedMutation>> groups = new ConcurrentLinkedQueue<>(byProduct.values());
+        Map<String, String> results = new ConcurrentHashMap<>();
+        int workers = Math.min(properties.getParallelism(), groups.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for(int i = 0; i < workers; i++) {
+            // Every worker takes the next group until none is left
+            futures.add(taskExecutor.submitCompletable(() -> {
+                List<QueuedMutation> group;
+                while((group = groups.poll()) != null) {
+                    group.forEach(queued -> results.put(queued.mutation.getIdempotencyKey(), apply(queued.mutation)));
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                    results.forEach((key, status) -> stringOperations.opsForValue().set(statusKey(key), status, properties.getIdempotencyTtl()));
+                    return null;
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Could not write the status of {} mutation(s): {}", results.size(), ex.toString());
+        }
+    }
+
+
+    // Returns the status to keep in Redis i.e. APPLIED|{id} or FAILED|{error}
+    private String apply(ProductMutationDto mutation) {
+        try {
+            // Throws when the Fake Store API has not applied it, see FakeStoreProductService.applyMutation
+            Product product = productCacheMaintenance.applyMutation(mutation);
+            applied.increment();
+            return APPLIED + SEPARATOR + (product != null ? Long.valueOf(product.getId()) : mutation.getId());
+        } catch (Exception ex) {
+            failed.increment();
+            return FAILED + SEPARATOR + (ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+    }
+
+
+    private static void validate(ProductMutationDto mutation) {
+        if(mutation.getOperation() == null) {
+            throw new IllegalArgumentException("operation is required, use CREATE, REPLACE, UPDATE or DELETE");
+        }
+        if(mutation.getOperation() != ProductMutationDto.Operation.CREATE && mutation.getId() == null) {
+            throw new IllegalArgumentException("id is required for " + mutation.getOperation());
+        }
+        if(mutation.getOperation() != ProductMutationDto.Operation.DELETE && mutation.getProduct() == null) {
+            throw new IllegalArgumentException("product is required for " + mutation.getOperation());
+        }
+    }
+
+
+    // PENDING, APPLIED|{id} or FAILED|{error}
+    private static MutationStatusDto toStatus(String idempotencyKey, String value) {
+        MutationStatusDto status = new MutationStatusDto();
+        status.setIdempotencyKey(idempotencyKey);
+        int separator = value.indexOf(SEPARATOR);
+        String state = separator < 0 ? value : value.substring(0, separator);
+        String detail = separator < 0 ? null : value.substring(separator + 1);
+        status.setStatus(MutationStatusDto.Status.valueOf(state));
+        if(APPLIED.equals(state) && detail != null && !detail.equals("null")) {
+            status.setProductId(Long.valueOf(detail));
+        } else if(FAILED.equals(state)) {
+            status.setError(detail);
+        }
+        return status;
+    }
+
+
+    private String statusKey(String idempotencyKey) {
+        return "product:v" + cacheProperties.getKeyVersion() + ":mutation:" + idempotencyKey;
+    }
+
+
+    // Wraps the mutation so that each queued mutation is its own group key, even two equal ones
+    private static final class QueuedMutation {
+
+        private final ProductMutationDto mutation;
+
+        QueuedMutation(ProductMutationDto mutation) {
+            this.mutation = mutation;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.example.services;
 
+import com.example.catalog.CatalogPage;
+import com.example.catalog.CatalogQuery;
+import com.example.dtos.BatchProductsDto;
 import com.example.dtos.FakeStoreProductDto;
 import com.example.exceptions.*;
 import com.example.models.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 public interface ProductService {
 
@@ -11,10 +15,18 @@ public interface ProductService {
 
     List<Product> getAllProducts();
 
+    void streamAllProducts(Consumer<Product> sink);
+
+    CatalogPage getProducts(CatalogQuery query);
+
+    BatchProductsDto getProductsByIds(List<Long> ids);
+
     List<String> getAllCategories();
 
     List<Product> getProductsByCategory(String category);
 
+    void streamProductsByCategory(String category, Consumer<Product> sink);
+
     Product replaceProduct(long id, FakeStoreProductDto fakeStoreProductDto);
 
     Product updateProduct(long id, FakeStoreProductDto fakeStoreProductDto);
@@ -0,0 +1,29 @@
+package com.example.services;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.example.models.*;
+import reactor.core.publisher.Mono;
+import java.util.*;
+
+
+// Non-blocking variant of ProductService, the result is emitted when the Fake Store API responds instead of blocking the calling thread
+
+public interface ReactiveProductService {
+
+    Mono<Product> getProductById(long id);
+
+    Mono<List<Product>> getAllProducts();
+
+    Mono<List<String>> getAllCategories();
+
+    Mono<List<Product>> getProductsByCategory(String category);
+
+    Mono<Product> replaceProduct(long id, FakeStoreProductDto fakeStoreProductDto);
+
+    Mono<Product> updateProduct(long id, FakeStoreProductDto fakeStoreProductDto);
+
+    Mono<Product> createProduct(FakeStoreProductDto fakeStoreProductDto);
+
+    Mono<Product> deleteProduct(long id);
+
+}
@@ -0,0 +1,178 @@
+package com.example.services;
+
+import com.example.configs.TokenCacheProperties;
+import com.example.configs.UpstreamProperties;
+import com.example.security.TokenHashes;
+import com.example.userServiceUtils.UserDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+
+// Validates tokens with User Service and caches the result, so that a caller sending the same token again doesn't cost a call to User Service
+// Valid tokens are cached for the configured ttl but never past the expiry of the token (exp claim when the token is a JWT)
+// Tokens rejected with UNAUTHORIZED or FORBIDDEN are cached for the shorter negativeTtl, other errors of User Service are never cached
+// Tokens are kept as SHA-256 hashes, so the cache never holds a usable token
+
+@Service
+public class TokenValidationService {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // Result of a validation, either the user or the status code returned by User Service when the token was rejected
+    private record Validation(UserDto user, HttpStatusCode rejectedStatus, Instant tokenExpiry) {
+    }
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private UpstreamProperties upstreamProperties;
+
+    @Autowired
+    private TokenCacheProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Null when the cache is disabled, every token is then validated by User Service
+    private Cache<String, Validation> validations;
+
+    private Counter hits;
+    private Counter negativeHits;
+    private Counter misses;
+
+    // Latency of the validations which called User Service, the cached ones take microseconds and are only counted
+    private Timer userServiceCalls;
+
+
+    @PostConstruct
+    public void init() {
+        validations = !properties.isEnabled() ? null : Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new Expiry<String, Validation>() {
+                    @Override
+                    public long expireAfterCreate(String key, Validation validation, long currentTime) {
+                        return timeToLive(validation).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Validation validation, long currentTime, long currentDuration) {
+                        return timeToLive(validation).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Validation validation, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        hits = meterRegistry.counter("product.auth.token.cache", "result", "hit");
+        negativeHits = meterRegistry.counter("product.auth.token.cache", "result", "negative_hit");
+        misses = meterRegistry.counter("product.auth.token.cache", "result", "miss");
+        userServiceCalls = Timer.builder("product.auth.token.validate")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+    }
+
+
+    // Returns the user of the token, else HttpClientErrorException is thrown with the status code returned by User Service
+    public UserDto validateToken(String token) throws HttpClientErrorException {
+        String key = validations == null ? null : TokenHashes.sha256(token);
+        Validation validation = key == null ? null : validations.getIfPresent(key);
+        if(validation == null) {
+            misses.increment();
+            validation = userServiceCalls.record(() -> callUserService(token));
+            if(key != null && (validation.rejectedStatus() != null || !timeToLive(validation).isZero())) {
+                validations.put(key, validation);
+            }
+        } else if(validation.rejectedStatus() != null) {
+            negativeHits.increment();
+        } else {
+            hits.increment();
+        }
+        if(validation.rejectedStatus() != null) {
+            throw new HttpClientErrorException(validation.rejectedStatus());
+        }
+        return validation.user();
+    }
+
+
+    // Eviction hooks, i.e. to be called when a user logs out or a token is revoked, so the token is validated by User Service on its next use
+    public void evict(String token) {
+        if(validations != null) {
+            validations.invalidate(TokenHashes.sha256(token));
+        }
+    }
+
+
+    public void evictAll() {
+        if(validations != null) {
+            validations.invalidateAll();
+        }
+    }
+
+
+    private Validation callUserService(String token) {
+        try {
+            UserDto user = restTemplate.getForObject(upstreamProperties.getUserServiceBaseUrl() + "/user/validate/" + token, UserDto.class);
+            return new Validation(user, null, tokenExpiry(token));
+        } catch (HttpClientErrorException ex) {
+            if(ex.getStatusCode() == HttpStatus.UNAUTHORIZED || ex.getStatusCode() == HttpStatus.FORBIDDEN) {
+                return new Validation(null, ex.getStatusCode(), null);
+            }
+            throw ex;
+        }
+    }
+
+
+    private Duration timeToLive(Validation validation) {
+        if(validation.rejectedStatus() != null) {
+            return properties.getNegativeTtl();
+        }
+        Duration ttl = properties.getTtl();
+        if(validation.tokenExpiry() != null) {
+            Duration untilExpiry = Duration.between(Instant.now(), validation.tokenExpiry());
+            if(untilExpiry.isNegative()) {
+                return Duration.ZERO;
+            }
+            if(untilExpiry.compareTo(ttl) < 0) {
+                return untilExpiry;
+            }
+        }
+        return ttl;
+    }
+
+
+    // Reads the exp claim when the token is a JWT, null when the token is opaque or has no expiry
+    private static Instant tokenExpiry(String token) {
+        String[] parts = token.split("\\.");
+        if(parts.length != 3) {
+            return null;
+        }
+        try {
+            JsonNode claims = OBJECT_MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1]));
+            JsonNode exp = claims.get("exp");
+            return exp != null && exp.canConvertToLong() ? Instant.ofEpochSecond(exp.asLong()) : null;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
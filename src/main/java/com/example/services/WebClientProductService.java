@@ -0,0 +1,232 @@
+package com.example.services;
+
+import com.example.cache.ProductCache;
+import com.example.catalog.ProductCatalog;
+import com.example.configs.UpstreamProperties;
+import com.example.dtos.*;
+import com.example.exceptions.*;
+import com.example.models.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+// ReactiveProductService which calls Fake Store API with the non-blocking WebClient, used when product.service.mode=reactive
+// Uses the same cache as FakeStoreProductService, the Redis calls are blocking so they run on the boundedElastic scheduler
+// and never on the event loop threads which serve all the calls to Fake Store API
+
+@Service
+@ConditionalOnProperty(name = "product.service.mode", havingValue = "reactive")
+public class WebClientProductService implements ReactiveProductService {
+
+    @Autowired
+    private WebClient upstreamWebClient;
+
+    @Autowired
+    private UpstreamProperties upstreamProperties;
+
+    @Autowired
+    private ProductCache productCache;
+
+    // Indexes of the cached list of all products, see CatalogSnapshot
+    @Autowired
+    private ProductCatalog productCatalog;
+
+    // Only used for converting FakeStoreProductDto to Product, so that both services return the same data
+    @Autowired
+    private FakeStoreProductService fakeStoreProductService;
+
+    // Concurrent misses for the same cache key subscribe to the same call to Fake Store API, like SingleFlight does for the blocking service
+    private final ConcurrentMap<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+
+
+    @Override
+    public Mono<Product> getProductById(long id) {
+        // Check the near cache and Redis first, else call Fake Store API and store the product in the cache
+        return fromCache(() -> productCache.getProduct(id))
+                .switchIfEmpty(Mono.defer(() -> singleFlight(productCache.productKey(id), upstreamWebClient.get()
+                        .uri(fakeStoreUrl("/products/{id}"), id)
+                        .retrieve()
+                        .bodyToMono(FakeStoreProductDto.class)
+                        .map(fakeStoreProductService::convertFakeStoreProductDtoToProduct)
+                        .switchIfEmpty(Mono.error(() -> new ProductNotFoundException("Product with id " + id + " not found")))
+                        .flatMap(product -> toCache(() -> productCache.putProduct(id, product)).thenReturn(product)))));
+    }
+
+
+    @Override
+    public Mono<List<Product>> getAllProducts() {
+        return fromCache(productCache::getAllProducts)
+                .switchIfEmpty(Mono.defer(() -> singleFlight(productCache.catalogKey(), getProductList(fakeStoreUrl("/products"), "No products found")
+                        .flatMap(products -> toCache(() -> productCache.putAllProducts(products)).thenReturn(products)))));
+    }
+
+
+    @Override
+    public Mono<List<String>> getAllCategories() {
+        // Categories almost never change, they are cached with key as product:v1:categories like in FakeStoreProductService
+        return fromCache(productCache::getAllCategories)
+                .switchIfEmpty(Mono.defer(() -> singleFlight(productCache.categoriesKey(), upstreamWebClient.get()
+                        .uri(fakeStoreUrl("/products/categories"))
+                        .retrieve()
+                        .bodyToMono(String[].class)
+                        .filter(responseList -> responseList.length > 0)
+                        .map(Arrays::asList)
+                        .switchIfEmpty(Mono.error(() -> new NullPointerException("No categories found")))
+                        .flatMap(categories -> toCache(() -> productCache.putAllCategories(categories)).thenReturn(categories)))));
+    }
+
+
+    @Override
+    public Mono<List<Product>> getProductsByCategory(String category) {
+        // The cached list of all products or of the category first, else call Fake Store API and cache the products of the category
+        return fromCache(() -> getCachedProductsByCategory(category))
+                .switchIfEmpty(Mono.defer(() -> singleFlight(productCache.categoryKey(category), getProductList(fakeStoreUrl("/products/category/" + category), "No products found for category " + category)
+                        .flatMap(products -> toCache(() -> productCache.putProductsByCategory(category, products)).thenReturn(products)))))
+                .filter(products -> !products.isEmpty())
+                .switchIfEmpty(Mono.error(() -> new NullPointerException("No products found for category " + category)));
+    }
+
+
+    // Picks the products of the category from the cached list of all products if there is one, see CatalogSnapshot,
+    // else returns the cached list of the category, null if neither is cached
+    private List<Product> getCachedProductsByCategory(String category) {
+        List<Product> allProducts = productCache.getAllProducts();
+        if(allProducts != null) {
+            return productCatalog.snapshotOf(allProducts).getProductsByCategory(category);
+        }
+        return productCache.getProductsByCategory(category);
+    }
+
+
+    @Override
+    public Mono<Product> replaceProduct(long id, FakeStoreProductDto fakeStoreProductDto) {
+        // PUT returns the replaced product, so no second call is needed to get it
+        // The cached product tells the category the product had before, its list of products has to be dropped as well
+        return previousProduct(id).flatMap(previous -> upstreamWebClient.put()
+                .uri(fakeStoreUrl("/products/{id}"), id)
+                .bodyValue(fakeStoreProductDto)
+                .retrieve()
+                .bodyToMono(FakeStoreProductDto.class)
+                .map(fakeStoreProductService::convertFakeStoreProductDtoToProduct)
+                .flatMap(product -> toCache(() -> {
+                    productCache.putProduct(id, product);
+                    evictProductLists(previous.orElse(null), product);
+                }).thenReturn(product)));
+    }
+
+
+    @Override
+    public Mono<Product> updateProduct(long id, FakeStoreProductDto fakeStoreProductDto) {
+        return previousProduct(id).flatMap(previous -> upstreamWebClient.patch()
+                .uri(fakeStoreUrl("/products/{id}"), id)
+                .bodyValue(fakeStoreProductDto)
+                .retrieve()
+                .bodyToMono(FakeStoreProductDto.class)
+                .map(fakeStoreProductService::convertFakeStoreProductDtoToProduct)
+                .flatMap(product -> toCache(() -> {
+                    productCache.putProduct(id, product);
+                    evictProductLists(previous.orElse(null), product);
+                }).thenReturn(product)));
+    }
+
+
+    @Override
+    public Mono<Product> createProduct(FakeStoreProductDto fakeStoreProductDto) {
+        return upstreamWebClient.post()
+                .uri(fakeStoreUrl("/products"))
+                .bodyValue(fakeStoreProductDto)
+                .retrieve()
+                .bodyToMono(FakeStoreProductDto.class)
+                .map(fakeStoreProductService::convertFakeStoreProductDtoToProduct)
+                .flatMap(product -> toCache(() -> {
+                    productCache.putProduct(product.getId(), product);
+                    productCache.addToAllProducts(product.getId());
+                    evictProductLists(product);
+                }).thenReturn(product));
+    }
+
+
+    @Override
+    public Mono<Product> deleteProduct(long id) {
+        // Drop the product and the lists of its category from the cache whether or not Fake Store API returns the deleted product
+        return previousProduct(id).flatMap(previous -> upstreamWebClient.delete()
+                .uri(fakeStoreUrl("/products/{id}"), id)
+                .retrieve()
+                .bodyToMono(FakeStoreProductDto.class)
+                .map(fakeStoreProductService::convertFakeStoreProductDtoToProduct)
+                .flatMap(product -> toCache(() -> {
+                    productCache.deleteProducts(List.of(id));
+                    evictProductLists(previous.orElse(null), product);
+                }).thenReturn(product))
+                .switchIfEmpty(toCache(() -> {
+                    productCache.deleteProducts(List.of(id));
+                    evictProductLists(previous.orElse(null));
+                }).then(Mono.empty())));
+    }
+
+
+    // The cached product before a change, empty if it isn't cached
+    private Mono<Optional<Product>> previousProduct(long id) {
+        return fromCache(() -> Optional.ofNullable(productCache.getProduct(id)));
+    }
+
+
+    // Drops the lists of the categories of the given products with one round trip, like FakeStoreProductService does
+    private void evictProductLists(Product... products) {
+        Set<String> categories = new HashSet<>();
+        for(Product product : products) {
+            if(product != null && product.getCategory() != null && product.getCategory().getDescription() != null) {
+                categories.add(product.getCategory().getDescription());
+            }
+        }
+        productCache.evictProductLists(categories);
+    }
+
+
+    private Mono<List<Product>> getProductList(String url, String emptyMessage) {
+        // Convert the responseType to Array of FakeStoreProductDto because if you use List then Generics are erased at runtime
+        return upstreamWebClient.get()
+                .uri(url)
+                .retrieve()
+                .bodyToMono(FakeStoreProductDto[].class)
+                .filter(responseList -> responseList.length > 0)
+                .map(responseList -> {
+                    List<Product> products = new ArrayList<>(responseList.length);
+                    for(FakeStoreProductDto response : responseList) {
+                        products.add(fakeStoreProductService.convertFakeStoreProductDtoToProduct(response));
+                    }
+                    return products;
+                })
+                .switchIfEmpty(Mono.error(() -> new NullPointerException(emptyMessage)));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private <T> Mono<T> singleFlight(String key, Mono<T> call) {
+        // cache() shares the single result with every subscriber, the entry is removed once the call is done so that the next miss calls again
+        return (Mono<T>) inFlight.computeIfAbsent(key, k -> call
+                .doFinally(signal -> inFlight.remove(k))
+                .cache());
+    }
+
+
+    private static <T> Mono<T> fromCache(Callable<T> lookup) {
+        return Mono.fromCallable(lookup).subscribeOn(Schedulers.boundedElastic());
+    }
+
+
+    private static Mono<Void> toCache(Runnable write) {
+        return Mono.fromRunnable(write).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+
+
+    private String fakeStoreUrl(String path) {
+        return upstreamProperties.getFakeStoreBaseUrl() + path;
+    }
+}
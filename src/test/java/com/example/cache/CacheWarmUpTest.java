@@ -0,0 +1,43 @@
+package com.example.cache;
+
+import com.example.dtos.FakeStoreProductDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.web.client.RestTemplate;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class CacheWarmUpTest {
+
+    @Autowired
+    private CacheWarmUp cacheWarmUp;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @MockBean
+    private RestTemplate restTemplate;
+
+
+    @Test
+    void warmUpLoadsCatalogAndCategories() {
+        productCache.evictAllProducts();
+        productCache.evictAllCategories();
+        FakeStoreProductDto dto = new FakeStoreProductDto();
+        dto.setId(51L);
+        when(restTemplate.getForObject("https://fakestoreapi.com/products", FakeStoreProductDto[].class)).thenReturn(new FakeStoreProductDto[]{dto});
+        when(restTemplate.getForObject("https://fakestoreapi.com/products/categories", String[].class)).thenReturn(new String[]{"electronics"});
+
+        cacheWarmUp.run(null);
+        // Assert that the list of all products and the categories are cached before the first request
+        assertEquals(1, productCache.getAllProducts().size());
+        assertEquals(List.of("electronics"), productCache.getAllCategories());
+        productCache.evictAllProducts();
+        productCache.evictAllCategories();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.cache;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.example.models.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.client.RestTemplate;
+import java.time.Duration;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class CatalogRefresherTest {
+
+    @Autowired
+    private CatalogRefresher catalogRefresher;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private HotProductTracker hotProductTracker;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @MockBean
+    private RestTemplate restTemplate;
+
+
+    private static FakeStoreProductDto dto(long id) {
+        FakeStoreProductDto dto = new FakeStoreProductDto();
+        dto.setId(id);
+        dto.setTitle("Refreshed Product " + id);
+        return dto;
+    }
+
+
+    @Test
+    void refreshReloadsCatalogAndHotProducts() {
+        // A leader lock left by an earlier run would make this node skip the refresh
+        stringRedisTemplate.delete("product:v1:refresh:leader");
+        productCache.evictAllProducts();
+        productCache.evictProduct(41L);
+        hotProductTracker.record(41L);
+        when(restTemplate.getForObject("https://fakestoreapi.com/products", FakeStoreProductDto[].class)).thenReturn(new FakeStoreProductDto[]{dto(41L), dto(42L)});
+
+        catalogRefresher.run();
+        // Assert that the list of all products and the requested product are cached without any request waiting for them
+        assertEquals(2, productCache.getAllProducts().size());
+        assertEquals("Refreshed Product 41", productCache.getProduct(41L).getTitle());
+    }
+
+
+    @Test
+    void failedRefreshKeepsStaleCatalog() {
+        stringRedisTemplate.delete("product:v1:refresh:leader");
+        Product product = new Product();
+        product.setId(43L);
+        productCache.putAllProducts(List.of(product));
+        redisTemplate.expire(productCache.catalogIndexKey(), Duration.ofSeconds(5));
+        when(restTemplate.getForObject("https://fakestoreapi.com/products", FakeStoreProductDto[].class)).thenReturn(null);
+
+        catalogRefresher.run();
+        // Assert that the stale id index of all products got another catalog TTL instead of expiring
+        assertTrue(redisTemplate.getExpire(productCache.catalogIndexKey()) > 5);
+        productCache.evictAllProducts();
+        productCache.evictProduct(43L);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.cache;
+
+import com.example.catalog.CatalogPage;
+import com.example.catalog.ProductCatalog;
+import com.example.models.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+class ProductCacheTest {
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private Cache<String, Object> productNearCache;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private ProductCatalog productCatalog;
+
+
+    @Test
+    void getIsServedFromNearCacheAfterPut() {
+        Product product = new Product();
+        product.setId(501L);
+        productCache.putProduct(501L, product);
+
+        // Remove the entry only from Redis, the near cache should still return the same object
+        redisTemplate.delete(productCache.productKey(501L));
+        assertSame(product, productCache.getProduct(501L));
+        productCache.evictProduct(501L);
+    }
+
+
+    @Test
+    void invalidationMessageFromOtherNodeEvictsNearCacheEntry() {
+        Product product = new Product();
+        product.setId(502L);
+        productCache.putProduct(502L, product);
+
+        // Simulate the message another node sends after changing the entry
+        productCache.onInvalidationMessage(("other-node|" + productCache.productKey(502L)).getBytes(StandardCharsets.UTF_8));
+        assertNull(productNearCache.getIfPresent(productCache.productKey(502L)));
+        // The next read is served from Redis again
+        assertEquals(502L, productCache.getProduct(502L).getId());
+        productCache.evictProduct(502L);
+    }
+
+
+    @Test
+    void putSetsTimeToLiveOnRedisKey() {
+        Product product = new Product();
+        product.setId(503L);
+        productCache.putProduct(503L, product);
+
+        // Every entry is written with an expiry, so Redis returns a positive time to live for the key
+        Long ttl = redisTemplate.getExpire(productCache.productKey(503L));
+        assertNotNull(ttl);
+        assertTrue(ttl > 0);
+        productCache.evictProduct(503L);
+    }
+
+
+    private static Product product(long id, String title) {
+        Product product = new Product();
+        product.setId(id);
+        product.setTitle(title);
+        return product;
+    }
+
+
+    @Test
+    void listOfAllProductsIsAssembledFromTheProductsOfTheIdIndex() {
+        productCache.putAllProducts(List.of(product(603L, "Third"), product(601L, "First"), product(602L, "Second")));
+        // Drop every copy in the heap, so the list is read back from the id index and the products in Redis
+        productNearCache.invalidateAll();
+        assertEquals(List.of(601L, 602L, 603L), productCache.getAllProducts().stream().map(Product::getId).toList());
+
+        // A changed product is written on its own and the next read of the list holds the new product
+        productCache.putProduct(602L, product(602L, "Changed"));
+        productCache.evictProductLists(List.of());
+        assertEquals("Changed", productCache.getAllProducts().get(1).getTitle());
+
+        // A deleted product leaves the index, the rest of the list stays cached
+        productCache.deleteProducts(List.of(601L));
+        assertEquals(List.of(602L, 603L), productCache.getAllProducts().stream().map(Product::getId).toList());
+
+        // A page is read straight from the index
+        CatalogPage page = productCache.getProductPage(0, 1, true);
+        assertEquals(603L, page.getProducts().get(0).getId());
+        assertEquals(2, page.getTotal());
+
+        // A product missing from Redis makes the whole list a miss, so it is fetched again instead of served incomplete
+        productNearCache.invalidateAll();
+        redisTemplate.delete(productCache.productKey(603L));
+        assertNull(productCache.getAllProducts());
+        productCache.evictAllProducts();
+        productCache.evictProducts(List.of(602L, 603L));
+    }
+
+
+    @Test
+    void catalogReadAgainAtTheSameVersionReusesItsSnapshot() {
+        productCache.putAllProducts(List.of(product(611L, "First"), product(612L, "Second")));
+        // Two reads from Redis give two lists, as with the near cache disabled
+        productNearCache.invalidateAll();
+        List<Product> first = productCache.getAllProducts();
+        productNearCache.invalidateAll();
+        List<Product> second = productCache.getAllProducts();
+        assertNotSame(first, second);
+        assertSame(productCatalog.snapshotOf(first), productCatalog.snapshotOf(second));
+
+        // A changed product gives a new version and a new snapshot
+        productCache.putProduct(612L, product(612L, "Changed"));
+        productNearCache.invalidateAll();
+        List<Product> changed = productCache.getAllProducts();
+        assertNotSame(productCatalog.snapshotOf(second), productCatalog.snapshotOf(changed));
+        assertEquals("Changed", productCatalog.snapshotOf(changed).getProductById(612L).getTitle());
+        productCache.evictAllProducts();
+        productCache.evictProducts(List.of(611L, 612L));
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.cache;
+
+import com.example.exceptions.ProductNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@SpringBootTest
+class SingleFlightTest {
+
+    @Autowired
+    private SingleFlight singleFlight;
+
+
+    @Test
+    void concurrentMissesMakeOneLoaderCall() throws Exception {
+        AtomicInteger loaderCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // 8 callers miss the cache for the same key while the first loader call is still running
+            List<Future<String>> results = new ArrayList<>();
+            for(int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("single-flight-test", () -> null, () -> {
+                    loaderCalls.incrementAndGet();
+                    release.await();
+                    return "value";
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for(Future<String> result : results) {
+                assertEquals("value", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loaderCalls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    void checkedExceptionOfLoaderIsPassedOn() {
+        // The exception thrown by the loader reaches the caller unchanged
+        assertThrows(ProductNotFoundException.class, () -> singleFlight.execute("single-flight-missing", () -> null, () -> {
+            throw new ProductNotFoundException("Product with id 100 not found");
+        }));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.cache.codec;
+
+import com.example.models.Category;
+import com.example.models.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CacheValueSerializerTest {
+
+    static Product product(long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setTitle("Product " + id);
+        product.setDescription("Product " + id + " Description");
+        product.setPrice(100.0 + id);
+        product.setImage("https://fakestoreapi.com/img/" + id + ".jpg");
+        Category category = new Category();
+        category.setDescription("electronics");
+        product.setCategory(category);
+        return product;
+    }
+
+
+    @Test
+    void binaryAndJsonRoundTripProductList() {
+        List<Product> products = new ArrayList<>();
+        products.add(product(1L));
+        products.add(product(2L));
+        products.get(1).setCategory(null);
+
+        for(CacheValueFormat format : List.of(CacheValueFormat.BINARY, CacheValueFormat.JSON)) {
+            CacheValueSerializer serializer = new CacheValueSerializer(format, false);
+            List<?> actual = (List<?>) serializer.deserialize(serializer.serialize(products));
+            // Assert that all the fields are read back as they were written
+            assertEquals(2, actual.size());
+            Product first = (Product) actual.get(0);
+            assertEquals(1L, first.getId());
+            assertEquals("Product 1", first.getTitle());
+            assertEquals(101.0, first.getPrice());
+            assertEquals("electronics", first.getCategory().getDescription());
+            assertNull(((Product) actual.get(1)).getCategory());
+        }
+    }
+
+
+    @Test
+    void valuesWrittenInAnyFormatAreReadable() {
+        // A node writing binary must read the values written by a node still writing json, and the other way around
+        byte[] json = new CacheValueSerializer(CacheValueFormat.JSON, false).serialize(product(3L));
+        byte[] binary = new CacheValueSerializer(CacheValueFormat.BINARY, false).serialize(product(3L));
+        assertEquals(3L, ((Product) new CacheValueSerializer(CacheValueFormat.BINARY, false).deserialize(json)).getId());
+        assertEquals(3L, ((Product) new CacheValueSerializer(CacheValueFormat.JSON, false).deserialize(binary)).getId());
+    }
+
+
+    @Test
+    void legacyJavaSerializedValuesAreReadOnlyInMigrationMode() {
+        byte[] legacy = new JdkSerializationRedisSerializer().serialize(product(4L));
+        assertEquals(4L, ((Product) new CacheValueSerializer(CacheValueFormat.BINARY, true).deserialize(legacy)).getId());
+        assertThrows(SerializationException.class, () -> new CacheValueSerializer(CacheValueFormat.BINARY, false).deserialize(legacy));
+    }
+
+
+    @Test
+    void binaryIsSmallerThanJavaSerialization() {
+        List<Product> products = new ArrayList<>();
+        for(long id = 1; id <= 20; id++) {
+            products.add(product(id));
+        }
+        int jdkSize = new JdkSerializationRedisSerializer().serialize(products).length;
+        int binarySize = new CacheValueSerializer(CacheValueFormat.BINARY, false).serialize(products).length;
+        assertTrue(binarySize < jdkSize);
+    }
+}
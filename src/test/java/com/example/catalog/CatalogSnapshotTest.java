@@ -0,0 +1,66 @@
+package com.example.catalog;
+
+import com.example.models.Category;
+import com.example.models.Product;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CatalogSnapshotTest {
+
+    // Products 1 to 6 in a shuffled order, odd ids are electronics and even ids are jewelery, price is 10 times the id
+    private final CatalogSnapshot snapshot = new CatalogSnapshot(List.of(product(4), product(1), product(6), product(3), product(2), product(5)));
+
+
+    private static Product product(long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setPrice(10.0 * id);
+        Category category = new Category();
+        category.setDescription(id % 2 == 1 ? "electronics" : "jewelery");
+        product.setCategory(category);
+        return product;
+    }
+
+
+    private static List<Long> ids(CatalogPage page) {
+        return page.getProducts().stream().map(Product::getId).toList();
+    }
+
+
+    @Test
+    void queryFiltersSortsAndPages() {
+        CatalogQuery query = new CatalogQuery();
+        query.setMinPrice(20.0);
+        query.setMaxPrice(50.0);
+        query.setSort("-price");
+        query.setOffset(1);
+        query.setLimit(2);
+        // Assert that products 2 to 5 match, sorted by descending price the page after the first one holds products 4 and 3
+        CatalogPage page = snapshot.query(query);
+        assertEquals(List.of(4L, 3L), ids(page));
+        assertEquals(4, page.getTotal());
+
+        // Assert that the category and the price range are both applied when sorted by id
+        query.setCategory("electronics");
+        query.setSort(null);
+        query.setOffset(0);
+        page = snapshot.query(query);
+        assertEquals(List.of(3L, 5L), ids(page));
+        assertEquals(2, page.getTotal());
+    }
+
+
+    @Test
+    void lookupsByIdAndCategory() {
+        assertEquals(6L, snapshot.getProductById(6L).getId());
+        assertNull(snapshot.getProductById(7L));
+        assertEquals(List.of(2L, 4L, 6L), snapshot.getProductsByCategory("jewelery").stream().map(Product::getId).toList());
+
+        CatalogQuery query = new CatalogQuery();
+        query.setSort("title");
+        // Assert that an unknown sort is rejected
+        assertThrows(IllegalArgumentException.class, () -> snapshot.query(query));
+    }
+}
@@ -1,32 +1,62 @@
 package com.example.controllers;
 
+import com.example.catalog.CatalogPage;
 import com.example.dtos.FakeStoreProductDto;
 import com.example.exceptions.ProductNotFoundException;
 import com.example.models.Product;
+import com.example.services.ProductCacheMaintenance;
 import com.example.services.ProductService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.web.servlet.MockMvc;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 
 // @SpringBootTest annotation is used to specify that the tests are for Spring Boot application
 @SpringBootTest
+// @AutoConfigureMockMvc annotation is used to send requests through the whole MVC stack i.e. content negotiation on the Accept header
+@AutoConfigureMockMvc
 class ProductControllerTest {
 
     // @Autowired annotation is used to inject the actual ProductController class
     @Autowired
     private ProductController productController;
 
+    @Autowired
+    private MockMvc mockMvc;
+
     // @MockBean annotation is used to mock the ProductService class
     @MockBean
     private ProductService productService;
 
+    // The mock of ProductService replaces FakeStoreProductService, which also keeps the cache up to date for the background jobs
+    @MockBean
+    private ProductCacheMaintenance productCacheMaintenance;
+
+    // Decodes the bearer tokens of the requests which need one
+    @MockBean
+    private JwtDecoder jwtDecoder;
+
 
     @Test
     void validGetProductById() throws ProductNotFoundException {
@@ -122,4 +152,139 @@ class ProductControllerTest {
         // If both are same then the test case will pass otherwise it will fail
         assertEquals(product, actualProduct);
     }
-}
\ No newline at end of file
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamAllProductsAsNdjson() throws Exception {
+        Product product1 = new Product();
+        product1.setId(1L);
+        product1.setTitle("Product 1");
+        Product product2 = new Product();
+        product2.setId(2L);
+        product2.setTitle("Product 2");
+
+        // Mocking the streamAllProducts method of ProductService to pass the products to the sink one by one
+        doAnswer(invocation -> {
+            Consumer<Product> sink = invocation.getArgument(0);
+            sink.accept(product1);
+            sink.accept(product2);
+            return null;
+        }).when(productService).streamAllProducts(any(Consumer.class));
+
+        // Accept: application/x-ndjson gives one product per line
+        mockMvc.perform(get("/products").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"id\":1,\"title\":\"Product 1\",\"description\":null,\"price\":0.0,\"image\":null,\"category\":null}\n"
+                        + "{\"id\":2,\"title\":\"Product 2\",\"description\":null,\"price\":0.0,\"image\":null,\"category\":null}\n"));
+
+        // Any other Accept header still gives the JSON array
+        when(productService.getAllProducts()).thenReturn(List.of(product1, product2));
+        mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[1].id").value(2));
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamProductsByCategoryFailsBeforeFirstProduct() throws Exception {
+        // Nothing has been written yet, so the exception is still answered by ExceptionHandlers
+        doAnswer(invocation -> {
+            throw new NullPointerException("No products found for category unknown");
+        }).when(productService).streamProductsByCategory(eq("unknown"), any(Consumer.class));
+
+        mockMvc.perform(get("/products/categories/unknown").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isNotImplemented());
+    }
+
+
+    @Test
+    void getAllCategoriesIsPrivate() throws Exception {
+        // Mocking the JwtDecoder to accept the token as one with the ADMIN scope, which /products/categories needs
+        when(jwtDecoder.decode("admin-token")).thenReturn(Jwt.withTokenValue("admin-token").header("alg", "none").claim("scope", "ADMIN").build());
+        when(productService.getAllCategories()).thenReturn(List.of("electronics"));
+
+        // The response needs a token, so a shared cache must not keep it and serve it to anonymous clients
+        mockMvc.perform(get("/products/categories").header("Authorization", "Bearer admin-token"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=3600, private"));
+    }
+
+
+    @Test
+    void getProductsByCategoryAnswersNotModifiedForKnownETag() throws Exception {
+        Product product = new Product();
+        product.setId(1L);
+        product.setTitle("Product 1");
+        // Mocking the getProductsByCategory method of ProductService to return the same cached list every time
+        when(productService.getProductsByCategory("electronics")).thenReturn(List.of(product));
+
+        // The first response has the ETag of the list and may be kept for the time to live of the category in the cache
+        String etag = mockMvc.perform(get("/products/categories/electronics"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=300, public"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(etag);
+
+        // Sending the ETag back gives NOT_MODIFIED without a body
+        mockMvc.perform(get("/products/categories/electronics").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+
+    @Test
+    void getAllProductsWritesKeptGzipBytes() throws Exception {
+        // A list big enough to be kept gzip compressed as well
+        List<Product> products = new ArrayList<>();
+        for(long id = 1; id <= 20; id++) {
+            Product product = new Product();
+            product.setId(id);
+            product.setTitle("Product " + id);
+            product.setDescription("Description of product " + id + " which is long enough to make the list worth compressing");
+            products.add(product);
+        }
+        when(productService.getAllProducts()).thenReturn(products);
+
+        // Without Accept-Encoding the plain JSON is written
+        String json = mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(jsonPath("$[19].id").value(20))
+                .andReturn().getResponse().getContentAsString();
+
+        // With Accept-Encoding: gzip the compressed copy of the same JSON is written
+        byte[] gzip = mockMvc.perform(get("/products").header("Accept-Encoding", "gzip, deflate, br"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertEquals(json, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        // gzip;q=0 means gzip is not acceptable
+        mockMvc.perform(get("/products").header("Accept-Encoding", "gzip;q=0"))
+                .andExpect(header().doesNotExist("Content-Encoding"));
+    }
+
+
+    @Test
+    void pageETagChangesWithTotal() throws Exception {
+        Product product = new Product();
+        product.setId(1L);
+        // The same page taken at the same catalog version, but the catalog has grown in between
+        when(productService.getProducts(any())).thenReturn(new CatalogPage(List.of(product), 5, null, 7L), new CatalogPage(List.of(product), 6, null, 7L));
+
+        String first = mockMvc.perform(get("/products").param("limit", "1"))
+                .andExpect(header().string("X-Total-Count", "5"))
+                .andReturn().getResponse().getHeader("ETag");
+        // Assert that the old ETag is not answered with NOT_MODIFIED, the client would keep the old total
+        mockMvc.perform(get("/products").param("limit", "1").header("If-None-Match", first))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "6"));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.metrics;
+
+import org.junit.jupiter.api.Test;
+import java.net.URI;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class UriTemplatesTest {
+
+    @Test
+    void variablePartsOfThePathAreReplaced() {
+        assertEquals("/products/{id}", UriTemplates.normalize(URI.create("https://fakestoreapi.com/products/7")));
+        assertEquals("/products/category/{category}", UriTemplates.normalize(URI.create("https://fakestoreapi.com/products/category/jewelery")));
+        // The token must never end up in a tag
+        assertEquals("/user/validate/{token}", UriTemplates.normalize(URI.create("http://localhost:8080/user/validate/secret-token")));
+        assertEquals("/products/categories", UriTemplates.normalize(URI.create("https://fakestoreapi.com/products/categories")));
+        assertEquals("/", UriTemplates.normalize(URI.create("https://fakestoreapi.com")));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.resilience;
+
+import com.example.configs.HedgeProperties;
+import com.example.configs.RetryProperties;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class RetryingHedgingInterceptorTest {
+
+    // Sends every call as it is, in place of the bulkhead and circuit breaker
+    private static final ClientHttpRequestInterceptor PASS_THROUGH = (request, body, execution) -> execution.execute(request, body);
+
+    private final SimpleAsyncTaskExecutor hedgeExecutor = new SimpleAsyncTaskExecutor("upstream-hedge-");
+
+    private final MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://fakestoreapi.com/products/1"));
+
+
+    @Test
+    void transientFailuresAreRetried() throws IOException {
+        RetryingHedgingInterceptor interceptor = new RetryingHedgingInterceptor(PASS_THROUGH, new RetryProperties(), new HedgeProperties(), new SimpleMeterRegistry(), hedgeExecutor);
+        AtomicInteger calls = new AtomicInteger();
+        // A timeout, then a 503, then the product
+        ClientHttpRequestExecution execution = (request, body) -> switch(calls.incrementAndGet()) {
+            case 1 -> throw new SocketTimeoutException("Read timed out");
+            case 2 -> new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE);
+            default -> new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        };
+        assertEquals(HttpStatus.OK, interceptor.intercept(request, new byte[0], execution).getStatusCode());
+        assertEquals(3, calls.get());
+    }
+
+
+    @Test
+    void slowCallIsHedged() throws IOException {
+        HedgeProperties hedgeProperties = new HedgeProperties();
+        hedgeProperties.setEnabled(true);
+        hedgeProperties.setMinSamples(0);
+        hedgeProperties.setMinDelay(Duration.ofMillis(50));
+        RetryingHedgingInterceptor interceptor = new RetryingHedgingInterceptor(PASS_THROUGH, new RetryProperties(), hedgeProperties, new SimpleMeterRegistry(), hedgeExecutor);
+        AtomicInteger calls = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        AtomicInteger aborted = new AtomicInteger();
+        // The first call hangs for 2 seconds unless it is aborted, the way the request factory aborts a request, the hedged call answers right away
+        ClientHttpRequestExecution execution = (request, body) -> {
+            if(calls.incrementAndGet() == 1) {
+                CallCancellation.register(() -> {
+                    aborted.incrementAndGet();
+                    caller.interrupt();
+                });
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Aborted");
+                }
+                return new MockClientHttpResponse(new byte[0], HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            return new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        };
+        long start = System.nanoTime();
+        ClientHttpResponse response = interceptor.intercept(request, new byte[0], execution);
+        // Assert that the response of the hedged call is returned without waiting for the slow call, which runs on the caller's thread and is aborted
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+        assertEquals(2, calls.get());
+        assertEquals(1, aborted.get());
+    }
+
+
+    @Test
+    void retryTakesItsOwnPermit() throws IOException {
+        // A bulkhead of a single call which doesn't wait, the retry only gets a permit if the failed call gave its permit back
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom().maxConcurrentCalls(1).maxWaitDuration(Duration.ZERO).build());
+        UpstreamResilienceInterceptor guard = new UpstreamResilienceInterceptor(CircuitBreakerRegistry.ofDefaults(), bulkheadRegistry,
+                Map.of(URI.create("https://fakestoreapi.com"), "fakeStore"));
+        RetryingHedgingInterceptor interceptor = new RetryingHedgingInterceptor(guard, new RetryProperties(), new HedgeProperties(), new SimpleMeterRegistry(), hedgeExecutor);
+        AtomicInteger calls = new AtomicInteger();
+        ClientHttpRequestExecution execution = (request, body) -> calls.incrementAndGet() == 1
+                ? new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE)
+                : new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        ClientHttpResponse response = interceptor.intercept(request, new byte[0], execution);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, calls.get());
+        // Assert that the permit of the returned response is given back once it is closed
+        response.close();
+        assertEquals(1, bulkheadRegistry.bulkhead("fakeStore").getMetrics().getAvailableConcurrentCalls());
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+class UpstreamResilienceInterceptorTest {
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+
+    private final UpstreamResilienceInterceptor interceptor = new UpstreamResilienceInterceptor(circuitBreakerRegistry, BulkheadRegistry.ofDefaults(),
+            Map.of(URI.create("https://fakestoreapi.com"), "fakeStore"));
+
+
+    @Test
+    void openCircuitFailsWithoutCallingUpstream() throws Exception {
+        circuitBreakerRegistry.circuitBreaker("fakeStore").transitionToOpenState();
+        ClientHttpRequestExecution execution = mock(ClientHttpRequestExecution.class);
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://fakestoreapi.com/products/1"));
+
+        // Assert that the call fails right away and Fake Store API is not called
+        assertThrows(CallNotPermittedException.class, () -> interceptor.intercept(request, new byte[0], execution));
+        verify(execution, never()).execute(any(), any());
+
+        // Assert that calls to other hosts i.e. the Authorization Server are passed through
+        MockClientHttpRequest otherRequest = new MockClientHttpRequest(HttpMethod.GET, URI.create("http://localhost:8181/oauth2/jwks"));
+        interceptor.intercept(otherRequest, new byte[0], execution);
+        verify(execution).execute(otherRequest, new byte[0]);
+    }
+
+
+    @Test
+    void permitIsHeldUntilResponseIsClosed() throws Exception {
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom().maxConcurrentCalls(1).maxWaitDuration(Duration.ZERO).build());
+        UpstreamResilienceInterceptor singleCallInterceptor = new UpstreamResilienceInterceptor(CircuitBreakerRegistry.ofDefaults(), bulkheadRegistry,
+                Map.of(URI.create("https://fakestoreapi.com"), "fakeStore"));
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead("fakeStore");
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://fakestoreapi.com/products/1"));
+        ClientHttpRequestExecution execution = (httpRequest, body) -> new MockClientHttpResponse("{}".getBytes(), HttpStatus.OK);
+
+        // Assert that the permit is taken while the body can still be read
+        ClientHttpResponse response = singleCallInterceptor.intercept(request, new byte[0], execution);
+        assertEquals(0, bulkhead.getMetrics().getAvailableConcurrentCalls());
+        response.getBody().readAllBytes();
+        response.close();
+        // Assert that closing the response gives it back, only once however often it is closed
+        response.close();
+        assertEquals(1, bulkhead.getMetrics().getAvailableConcurrentCalls());
+    }
+}
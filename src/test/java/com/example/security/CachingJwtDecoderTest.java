@@ -0,0 +1,91 @@
+package com.example.security;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+class CachingJwtDecoderTest {
+
+    private static final String JWK_SET_URI = "http://localhost:8181/oauth2/jwks";
+
+    private RSAKey rsaKey;
+    private RestOperations restOperations;
+    private CachingJwkSource jwkSource;
+    private CachingJwtDecoder jwtDecoder;
+
+
+    @BeforeEach
+    void setUp() throws Exception {
+        rsaKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        // The Authorization Server answers with the public key only
+        restOperations = mock(RestOperations.class);
+        when(restOperations.getForObject(JWK_SET_URI, String.class)).thenReturn(new JWKSet(rsaKey.toPublicJWK()).toString());
+
+        jwkSource = new CachingJwkSource(restOperations, JWK_SET_URI, Duration.ofMinutes(5), Duration.ZERO);
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {});
+        NimbusJwtDecoder nimbusJwtDecoder = new NimbusJwtDecoder(jwtProcessor);
+        nimbusJwtDecoder.setJwtValidator(JwtValidators.createDefault());
+        jwtDecoder = new CachingJwtDecoder(nimbusJwtDecoder, 100, new SimpleMeterRegistry());
+    }
+
+
+    @AfterEach
+    void tearDown() {
+        jwkSource.close();
+    }
+
+
+    private String token(String subject) throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("key-1").build(), claims);
+        jwt.sign(new RSASSASigner(rsaKey));
+        return jwt.serialize();
+    }
+
+
+    @Test
+    void sameTokenIsDecodedOnce() throws Exception {
+        String token = token("user-1");
+        Jwt first = jwtDecoder.decode(token);
+        // The second decode returns the cached Jwt instead of verifying the signature again
+        assertSame(first, jwtDecoder.decode(token));
+        assertEquals("user-1", first.getSubject());
+    }
+
+
+    @Test
+    void lastKnownKeysAreUsedWhileAuthorizationServerIsDown() throws Exception {
+        jwtDecoder.decode(token("user-1"));
+        // The Authorization Server goes down after the keys were fetched
+        when(restOperations.getForObject(JWK_SET_URI, String.class)).thenThrow(new ResourceAccessException("Connection refused"));
+        assertEquals("user-2", jwtDecoder.decode(token("user-2")).getSubject());
+    }
+}
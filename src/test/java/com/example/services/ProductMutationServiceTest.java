@@ -0,0 +1,84 @@
+package com.example.services;
+
+import com.example.dtos.FakeStoreProductDto;
+import com.example.dtos.MutationStatusDto;
+import com.example.dtos.ProductMutationDto;
+import com.example.models.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class ProductMutationServiceTest {
+
+    @Autowired
+    private ProductMutationService productMutationService;
+
+    // Stands in for FakeStoreProductService, the mutations are sent to the Fake Store API through it
+    @MockBean
+    private ProductCacheMaintenance productCacheMaintenance;
+
+    // The mock above replaces FakeStoreProductService, so the controller needs a ProductService of its own
+    @MockBean
+    private ProductService productService;
+
+
+    @Test
+    void mutationSentTwiceIsAppliedOnce() throws InterruptedException {
+        // Mock the Fake Store API answering the update with the product
+        Product product = new Product();
+        product.setId(71L);
+        when(productCacheMaintenance.applyMutation(any())).thenReturn(product);
+
+        ProductMutationDto mutation = mutation(UUID.randomUUID().toString(), ProductMutationDto.Operation.UPDATE, 71L);
+        MutationStatusDto first = productMutationService.submit(List.of(mutation)).get(0);
+        assertEquals(MutationStatusDto.Status.PENDING, first.getStatus());
+        assertFalse(first.isDuplicate());
+        // The cache reflects the mutation as soon as it is accepted
+        verify(productCacheMaintenance).reflectMutations(List.of(mutation));
+
+        // Wait for the mutation to be applied in the background
+        MutationStatusDto status = first;
+        for(int i = 0; i < 100 && status.getStatus() == MutationStatusDto.Status.PENDING; i++) {
+            Thread.sleep(50);
+            status = productMutationService.getStatus(mutation.getIdempotencyKey());
+        }
+        assertEquals(MutationStatusDto.Status.APPLIED, status.getStatus());
+        assertEquals(71L, status.getProductId());
+
+        // The same key sent again is not applied again
+        MutationStatusDto second = productMutationService.submit(List.of(mutation(mutation.getIdempotencyKey(), ProductMutationDto.Operation.UPDATE, 71L))).get(0);
+        assertTrue(second.isDuplicate());
+        assertEquals(MutationStatusDto.Status.APPLIED, second.getStatus());
+        verify(productCacheMaintenance, times(1)).applyMutation(any());
+    }
+
+
+    @Test
+    void invalidMutationRejectsWholeRequest() {
+        // An UPDATE without id, the valid mutation before it must not be accepted either
+        ProductMutationDto valid = mutation(UUID.randomUUID().toString(), ProductMutationDto.Operation.UPDATE, 72L);
+        ProductMutationDto invalid = mutation(UUID.randomUUID().toString(), ProductMutationDto.Operation.UPDATE, null);
+        assertThrows(IllegalArgumentException.class, () -> productMutationService.submit(List.of(valid, invalid)));
+        assertNull(productMutationService.getStatus(valid.getIdempotencyKey()));
+    }
+
+
+    private static ProductMutationDto mutation(String idempotencyKey, ProductMutationDto.Operation operation, Long id) {
+        FakeStoreProductDto product = new FakeStoreProductDto();
+        product.setTitle("Product " + id);
+        ProductMutationDto mutation = new ProductMutationDto();
+        mutation.setIdempotencyKey(idempotencyKey);
+        mutation.setOperation(operation);
+        mutation.setId(id);
+        mutation.setProduct(product);
+        return mutation;
+    }
+}
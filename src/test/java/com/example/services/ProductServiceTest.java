@@ -1,15 +1,37 @@
 package com.example.services;
 
+import com.example.cache.ProductCache;
+import com.example.dtos.BatchProductsDto;
 import com.example.dtos.FakeStoreProductDto;
+import com.example.dtos.ProductMutationDto;
 import com.example.exceptions.ProductNotFoundException;
+import com.example.models.Category;
+import com.example.models.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 
 @SpringBootTest
@@ -18,9 +40,35 @@ class ProductServiceTest {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private ProductCacheMaintenance productCacheMaintenance;
+
     @MockBean
     private RestTemplate restTemplate;
 
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private Cache<String, Object> productNearCache;
+
+
+    @BeforeEach
+    void setUp() {
+        // Lists cached by one test must not be returned in another test
+        productCache.evictAllCategories();
+        productCache.evictAllProducts();
+        productCache.evictProductsByCategory("electronics");
+        // Neither must the products of the ids used below, including the ones left in Redis by an earlier run of the suite
+        productCache.evictProducts(List.of(1L, 7L, 8L, 21L, 22L, 23L, 31L, 32L, 33L, 41L, 42L, 61L, 81L, 82L, 83L, 100L));
+    }
+
 
     @Test
     void validGetProductById() throws ProductNotFoundException {
@@ -104,4 +152,163 @@ class ProductServiceTest {
         // Assert that null is returned when the updateProduct method of ProductService is called with an invalid id
         assertNull(productService.updateProduct(100L, fakeStoreProductDto));
     }
-}
\ No newline at end of file
+
+
+    @Test
+    void updateProductWritesThroughCache() throws ProductNotFoundException {
+        // Create a FakeStoreProductDto object with an updated title
+        FakeStoreProductDto fakeStoreProductDto = new FakeStoreProductDto();
+        fakeStoreProductDto.setId(7L);
+        fakeStoreProductDto.setTitle("Updated Product 7");
+
+        // Mock the restTemplate.patchForObject method to return the updated FakeStoreProductDto object
+        when(restTemplate.patchForObject("https://fakestoreapi.com/products/"+7L, fakeStoreProductDto, FakeStoreProductDto.class)).thenReturn(fakeStoreProductDto);
+        productService.updateProduct(7L, fakeStoreProductDto);
+        // Assert that the updated product is returned from the cache without calling the Fake Store API again
+        assertEquals("Updated Product 7", productService.getProductById(7L).getTitle());
+        verify(restTemplate, never()).getForObject("https://fakestoreapi.com/products/"+7L, FakeStoreProductDto.class);
+    }
+
+
+    @Test
+    void deleteProductEvictsCache() {
+        // Create a FakeStoreProductDto object which is first cached by updating it
+        FakeStoreProductDto fakeStoreProductDto = new FakeStoreProductDto();
+        fakeStoreProductDto.setId(8L);
+        when(restTemplate.patchForObject("https://fakestoreapi.com/products/"+8L, fakeStoreProductDto, FakeStoreProductDto.class)).thenReturn(fakeStoreProductDto);
+        productService.updateProduct(8L, fakeStoreProductDto);
+
+        // Delete the product, the Fake Store API returns no data. The response extractor needs the message converters of a real RestTemplate
+        when(restTemplate.getMessageConverters()).thenReturn(new RestTemplate().getMessageConverters());
+        when(restTemplate.execute(eq("https://fakestoreapi.com/products/"+8L), eq(HttpMethod.DELETE), any(), any())).thenReturn(null);
+        productService.deleteProduct(8L);
+        // Assert that the product is no longer in the cache i.e. the Fake Store API is called and as it returns null ProductNotFoundException is thrown
+        assertThrows(ProductNotFoundException.class, () -> productService.getProductById(8L));
+    }
+
+
+    @Test
+    void getProductsByIdsReturnsPartialResults() throws ProductNotFoundException {
+        // Product 21 is cached by updating it, product 22 is only in the Fake Store API and product 23 is not found
+        FakeStoreProductDto cachedProduct = new FakeStoreProductDto();
+        cachedProduct.setId(21L);
+        when(restTemplate.patchForObject("https://fakestoreapi.com/products/"+21L, cachedProduct, FakeStoreProductDto.class)).thenReturn(cachedProduct);
+        productService.updateProduct(21L, cachedProduct);
+        FakeStoreProductDto fetchedProduct = new FakeStoreProductDto();
+        fetchedProduct.setId(22L);
+        when(restTemplate.getForObject("https://fakestoreapi.com/products/"+22L, FakeStoreProductDto.class)).thenReturn(fetchedProduct);
+        when(restTemplate.getForObject("https://fakestoreapi.com/products/"+23L, FakeStoreProductDto.class)).thenReturn(null);
+
+        BatchProductsDto batchProductsDto = productService.getProductsByIds(List.of(22L, 21L, 23L, 22L));
+        // Assert that the products found are returned in the requested order and the missing id is listed in errors
+        assertEquals(List.of(22L, 21L), batchProductsDto.getProducts().stream().map(Product::getId).toList());
+        assertEquals(Set.of(23L), batchProductsDto.getErrors().keySet());
+        // Assert that the cached product is not fetched and the fetched product is now cached
+        verify(restTemplate, never()).getForObject("https://fakestoreapi.com/products/"+21L, FakeStoreProductDto.class);
+        assertEquals(22L, productService.getProductById(22L).getId());
+        verify(restTemplate, times(1)).getForObject("https://fakestoreapi.com/products/"+22L, FakeStoreProductDto.class);
+    }
+
+
+    @Test
+    void getProductsByCategoryUsesCachedCatalog() {
+        // Cache the list of all products with products of two categories
+        productCache.putAllProducts(List.of(product(31L, "electronics"), product(32L, "jewelery"), product(33L, "electronics")));
+        // Assert that the products of the category are picked from the cached list without calling the Fake Store API
+        assertEquals(List.of(31L, 33L), productService.getProductsByCategory("electronics").stream().map(Product::getId).toList());
+        verify(restTemplate, never()).getForObject("https://fakestoreapi.com/products/category/electronics", FakeStoreProductDto[].class);
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamAllProductsReadsUpstreamArrayIncrementally() throws Exception {
+        // Mock the Fake Store API answering with a JSON array, the response is handed to the extractor of the service as a stream
+        String body = "[{\"id\":41,\"title\":\"Product 41\",\"category\":\"electronics\"},{\"id\":42,\"title\":\"Product 42\",\"category\":\"jewelery\"}]";
+        ClientHttpResponse response = mock(ClientHttpResponse.class);
+        when(response.getBody()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        when(restTemplate.execute(eq("https://fakestoreapi.com/products"), eq(HttpMethod.GET), any(), any(ResponseExtractor.class)))
+                .thenAnswer(invocation -> ((ResponseExtractor<Object>) invocation.getArgument(3)).extractData(response));
+
+        // Assert that every product is passed to the sink, and the whole list is cached for the next request
+        List<Long> streamed = new ArrayList<>();
+        productService.streamAllProducts(product -> streamed.add(product.getId()));
+        assertEquals(List.of(41L, 42L), streamed);
+        assertEquals(List.of(41L, 42L), productCache.getAllProducts().stream().map(Product::getId).toList());
+    }
+
+
+    @Test
+    void openCircuitServesStaleCopy() throws ProductNotFoundException {
+        // Cache product 61, then drop the fresh entry as if it expired so that only the stale copy is left
+        FakeStoreProductDto fakeStoreProductDto = new FakeStoreProductDto();
+        fakeStoreProductDto.setId(61L);
+        when(restTemplate.patchForObject("https://fakestoreapi.com/products/"+61L, fakeStoreProductDto, FakeStoreProductDto.class)).thenReturn(fakeStoreProductDto);
+        productService.updateProduct(61L, fakeStoreProductDto);
+        redisTemplate.delete(productCache.productKey(61L));
+        productNearCache.invalidate(productCache.productKey(61L));
+
+        // Mock the circuit breaker of Fake Store API being open
+        when(restTemplate.getForObject("https://fakestoreapi.com/products/"+61L, FakeStoreProductDto.class))
+                .thenThrow(CallNotPermittedException.createCallNotPermittedException(CircuitBreaker.ofDefaults("fakeStore")));
+        // Assert that the stale copy is returned instead of the exception
+        assertEquals(61L, productService.getProductById(61L).getId());
+        productCache.evictProduct(61L);
+    }
+
+
+    @Test
+    void failedDeleteMutationKeepsProductInCatalog() {
+        productCache.putAllProducts(List.of(product(81L, "electronics"), product(82L, "electronics")));
+        ProductMutationDto mutation = new ProductMutationDto();
+        mutation.setIdempotencyKey("delete-82");
+        mutation.setOperation(ProductMutationDto.Operation.DELETE);
+        mutation.setId(82L);
+        productCacheMaintenance.reflectMutations(List.of(mutation));
+
+        // Mock the Fake Store API failing the delete
+        when(restTemplate.getMessageConverters()).thenReturn(new RestTemplate().getMessageConverters());
+        when(restTemplate.execute(eq("https://fakestoreapi.com/products/"+82L), eq(HttpMethod.DELETE), any(), any())).thenThrow(new ResourceAccessException("Fake Store API is down"));
+        assertThrows(ResourceAccessException.class, () -> productCacheMaintenance.applyMutation(mutation));
+
+        // Assert that the product is still in the id index, so the list of all products is fetched again instead of served without it
+        assertNotNull(stringRedisTemplate.opsForZSet().score(productCache.catalogIndexKey(), "82"));
+        assertNull(productCache.getAllProducts());
+    }
+
+
+    @Test
+    void updateMutationDropsCachedProduct() {
+        Product cached = product(83L, "electronics");
+        cached.setTitle("Old title");
+        productCache.putProduct(83L, cached);
+        // The update only holds the new title
+        FakeStoreProductDto patch = new FakeStoreProductDto();
+        patch.setTitle("New title");
+        ProductMutationDto mutation = new ProductMutationDto();
+        mutation.setIdempotencyKey("update-83");
+        mutation.setOperation(ProductMutationDto.Operation.UPDATE);
+        mutation.setId(83L);
+        mutation.setProduct(patch);
+        productCacheMaintenance.reflectMutations(List.of(mutation));
+        // Assert that the patch is not cached as if it were the whole product
+        assertNull(productCache.getProduct(83L));
+
+        // Mock the Fake Store API answering the update with no product
+        productCache.putProduct(83L, cached);
+        when(restTemplate.patchForObject("https://fakestoreapi.com/products/"+83L, patch, FakeStoreProductDto.class)).thenReturn(null);
+        assertThrows(IllegalStateException.class, () -> productCacheMaintenance.applyMutation(mutation));
+        // Assert that the failed mutation drops the product from the cache
+        assertNull(productCache.getProduct(83L));
+    }
+
+
+    private static Product product(long id, String categoryName) {
+        Category category = new Category();
+        category.setDescription(categoryName);
+        Product product = new Product();
+        product.setId(id);
+        product.setCategory(category);
+        return product;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.services;
+
+import com.example.userServiceUtils.UserDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+@SpringBootTest
+class TokenValidationServiceTest {
+
+    @Autowired
+    private TokenValidationService tokenValidationService;
+
+    @MockBean
+    private RestTemplate restTemplate;
+
+
+    @AfterEach
+    void evictAll() {
+        tokenValidationService.evictAll();
+    }
+
+
+    @Test
+    void validTokenIsValidatedByUserServiceOnce() {
+        UserDto user = new UserDto();
+        user.setEmail("user@example.com");
+        when(restTemplate.getForObject("http://localhost:8080/user/validate/valid-token", UserDto.class)).thenReturn(user);
+
+        // Validate the same token twice, only the first validation should call User Service
+        assertSame(user, tokenValidationService.validateToken("valid-token"));
+        assertSame(user, tokenValidationService.validateToken("valid-token"));
+        verify(restTemplate, times(1)).getForObject("http://localhost:8080/user/validate/valid-token", UserDto.class);
+
+        // After eviction the token is sent to User Service again
+        tokenValidationService.evict("valid-token");
+        tokenValidationService.validateToken("valid-token");
+        verify(restTemplate, times(2)).getForObject("http://localhost:8080/user/validate/valid-token", UserDto.class);
+    }
+
+
+    @Test
+    void rejectedTokenIsRejectedWithoutCallingUserServiceAgain() {
+        when(restTemplate.getForObject("http://localhost:8080/user/validate/invalid-token", UserDto.class))
+                .thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED));
+
+        // Both validations throw UNAUTHORIZED, only the first one calls User Service
+        HttpClientErrorException first = assertThrows(HttpClientErrorException.class, () -> tokenValidationService.validateToken("invalid-token"));
+        HttpClientErrorException second = assertThrows(HttpClientErrorException.class, () -> tokenValidationService.validateToken("invalid-token"));
+        assertEquals(HttpStatus.UNAUTHORIZED, first.getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, second.getStatusCode());
+        verify(restTemplate, times(1)).getForObject("http://localhost:8080/user/validate/invalid-token", UserDto.class);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.services;
+
+import com.example.cache.ProductCache;
+import com.example.models.Product;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import reactor.core.publisher.Flux;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Reactive mode against a local stand-in of Fake Store API which answers after a fixed latency
+// Many calls are in flight at the same time although the WebClient only uses its few event loop threads,
+// while the blocking service needs one thread per call in flight
+// Only what doesn't depend on the speed of the machine is asserted, the throughput is measured by LoadTest in the benchmarks module
+
+@SpringBootTest(properties = "product.service.mode=reactive")
+class WebClientProductServiceTest {
+
+    private static final int REQUESTS = 200;
+    private static final long UPSTREAM_LATENCY_MILLIS = 200;
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+    private static final HttpServer stubServer = startStubServer();
+
+    @Autowired
+    private ReactiveProductService reactiveProductService;
+
+    @Autowired
+    private ProductCache productCache;
+
+
+    @DynamicPropertySource
+    static void upstreamProperties(DynamicPropertyRegistry registry) {
+        registry.add("upstream.fake-store-base-url", () -> "http://localhost:" + stubServer.getAddress().getPort());
+    }
+
+
+    @AfterAll
+    static void stopStubServer() {
+        stubServer.stop(0);
+    }
+
+
+    @Test
+    void manyConcurrentCallsOnFewThreads() {
+        for(long id = 1; id <= REQUESTS; id++) {
+            productCache.evictProduct(10_000 + id);
+        }
+
+        List<Product> products = Flux.range(1, REQUESTS)
+                .flatMap(i -> reactiveProductService.getProductById(10_000 + i), REQUESTS)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+
+        assertEquals(REQUESTS, products.size());
+        // Assert that more calls were in flight than there are event loop threads to make them
+        long eventLoopThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("reactor-http-"))
+                .count();
+        assertTrue(eventLoopThreads > 0 && eventLoopThreads < REQUESTS);
+        assertTrue(maxInFlight.get() > eventLoopThreads, "calls in flight should not be limited by the number of threads");
+
+        for(long id = 1; id <= REQUESTS; id++) {
+            productCache.evictProduct(10_000 + id);
+        }
+    }
+
+
+    // Answers GET /products/{id} after UPSTREAM_LATENCY_MILLIS and counts the calls in flight
+    private static HttpServer startStubServer() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/products/", exchange -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(UPSTREAM_LATENCY_MILLIS);
+                    String id = exchange.getRequestURI().getPath().substring("/products/".length());
+                    byte[] body = ("{\"id\":" + id + ",\"title\":\"Product " + id + "\",\"price\":10.0,\"category\":\"electronics\"}").getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try(OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            server.start();
+            return server;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}